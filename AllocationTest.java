@@ -0,0 +1,243 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Class AllocationTest.java
+ * Checks that, once warmed up, compressing and decompressing allocate next to nothing per call however long
+ * the content is: every I/O and scratch buffer comes from BufferPool, the code tables come from
+ * TableCache.shared(), and what is left is the per-call bookkeeping described in BufferPool.java. Pipelined
+ * calls are measured over every thread, so that what their stages allocate counts too.
+ * Run with "java AllocationTest"; it prints what every call allocated and exits with status 1 if a check fails.
+ * @author nahokitade
+ *
+ */
+public class AllocationTest{
+	/** lengths of the content compared: the larger one must not allocate more than the smaller one. */
+	private static final int SMALL_LENGTH = 1 << 20;
+	private static final int LARGE_LENGTH = 8 << 20;
+	/** how many more bytes the call on the larger content may allocate, for objects that vary run to run. */
+	private static final long SLACK = 4 * 1024;
+	/** calls made before measuring, so that the JIT and the buffer pool are warmed up. */
+	private static final int WARM_UP_CALLS = 20;
+
+	private static com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static boolean failed;
+
+	/**
+	 * Makes some text-like content: lowercase letters, spaces and newlines, with a few runs.
+	 * @param length number of bytes
+	 * @return the content
+	 */
+	private static byte[] content(int length){
+		byte[] content = new byte[length];
+		Random random = new Random(length);
+		for (int i = 0; i < length; i++){
+			int r = random.nextInt(32);
+			content[i] = (byte) ((r < 26) ? 'a' + r : (r < 31) ? ' ' : '\n');
+		}
+		return content;
+	}
+
+	/**
+	 * Makes content that is stored as run lengths.
+	 * @param length number of bytes
+	 * @return the content
+	 */
+	private static byte[] runs(int length){
+		byte[] content = new byte[length];
+		Random random = new Random(length);
+		for (int i = 0; i < length; ){
+			int run = Math.min(length - i, 100 + random.nextInt(1000));
+			java.util.Arrays.fill(content, i, i + run, (byte) random.nextInt(256));
+			i += run;
+		}
+		return content;
+	}
+
+	/**
+	 * Makes content of random bytes, which uses every byte value and so the largest code tables.
+	 * @param length number of bytes
+	 * @return the content
+	 */
+	private static byte[] random(int length){
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		return content;
+	}
+
+	/**
+	 * A call to measure.
+	 */
+	private interface Call{
+		void run() throws IOException;
+	}
+
+	/**
+	 * Measures the bytes a warmed up call allocates on all threads, keeping the least of a few tries so that
+	 * one-off allocations (class loading, a JIT deoptimization, another thread waking up) do not count.
+	 * @param call the call
+	 * @return the bytes allocated
+	 * @throws IOException
+	 */
+	private static long allocated(Call call) throws IOException{
+		long least = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++){
+			// (the threads are listed before measuring, so that listing them is not counted.)
+			long[] ids = threads.getAllThreadIds();
+			long before = totalAllocated(ids);
+			call.run();
+			least = Math.min(least, totalAllocated(ids) - before);
+		}
+		return least;
+	}
+
+	/**
+	 * @param ids the threads to count
+	 * @return the bytes allocated by the threads so far, not counting threads that have ended
+	 */
+	private static long totalAllocated(long[] ids){
+		long total = 0;
+		for (long id : ids){
+			total += Math.max(threads.getThreadAllocatedBytes(id), 0);
+		}
+		return total;
+	}
+
+	/**
+	 * Warms up a call made on content of both lengths, then checks what it allocates on each.
+	 * @param name what is being measured
+	 * @param small the call on the smaller content
+	 * @param large the call on the larger content
+	 * @throws IOException
+	 */
+	private static void check(String name, Call small, Call large) throws IOException{
+		for (int i = 0; i < WARM_UP_CALLS; i++){
+			small.run();
+			large.run();
+		}
+		long smallBytes = allocated(small);
+		long largeBytes = allocated(large);
+		boolean ok = smallBytes <= BufferPool.MAX_ALLOCATED_PER_CALL && largeBytes <= BufferPool.MAX_ALLOCATED_PER_CALL
+				&& largeBytes <= smallBytes + SLACK;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + smallBytes + " bytes for "
+				+ SMALL_LENGTH + ", " + largeBytes + " bytes for " + LARGE_LENGTH);
+		failed |= !ok;
+	}
+
+	/**
+	 * Checks the in-memory API on some content of both lengths.
+	 * @param name what kind of content it is
+	 * @param smallContent the smaller content
+	 * @param largeContent the larger content
+	 * @throws IOException
+	 */
+	private static void checkMemory(String name, final byte[] smallContent, final byte[] largeContent)
+			throws IOException{
+		final byte[] smallCompressed = new byte[HuffmanEncoding.maxCompressedLength(smallContent.length)];
+		final byte[] largeCompressed = new byte[HuffmanEncoding.maxCompressedLength(largeContent.length)];
+		final int smallLength = HuffmanEncoding.compress(smallContent, 0, smallContent.length, smallCompressed, 0);
+		final int largeLength = HuffmanEncoding.compress(largeContent, 0, largeContent.length, largeCompressed, 0);
+		final byte[] smallDecompressed = new byte[smallContent.length];
+		final byte[] largeDecompressed = new byte[largeContent.length];
+		check("compress " + name, new Call(){
+			public void run(){
+				HuffmanEncoding.compress(smallContent, 0, smallContent.length, smallCompressed, 0);
+			}
+		}, new Call(){
+			public void run(){
+				HuffmanEncoding.compress(largeContent, 0, largeContent.length, largeCompressed, 0);
+			}
+		});
+		check("decompress " + name, new Call(){
+			public void run() throws IOException{
+				HuffmanEncoding.decompress(smallCompressed, 0, smallLength, smallDecompressed, 0);
+			}
+		}, new Call(){
+			public void run() throws IOException{
+				HuffmanEncoding.decompress(largeCompressed, 0, largeLength, largeDecompressed, 0);
+			}
+		});
+		// measuring is only worth something if the calls did their job.
+		if (!java.util.Arrays.equals(smallContent, smallDecompressed)
+				|| !java.util.Arrays.equals(largeContent, largeDecompressed)){
+			System.out.println("FAILED " + name + " did not decompress to the original content");
+			failed = true;
+		}
+	}
+
+	/**
+	 * Checks compressing and decompressing files of both lengths.
+	 * @param directory where to put the files
+	 * @param pipelined whether to read and write the files on pipeline stages
+	 * @throws IOException
+	 */
+	private static void checkFiles(File directory, final boolean pipelined) throws IOException{
+		final String[] paths = new String[6];
+		byte[][] contents = {content(SMALL_LENGTH), content(LARGE_LENGTH)};
+		for (int i = 0; i < 2; i++){
+			paths[3 * i] = new File(directory, "content" + i + ".txt").getPath();
+			paths[3 * i + 1] = new File(directory, "content" + i + "_compressed").getPath();
+			paths[3 * i + 2] = new File(directory, "content" + i + "_decompressed").getPath();
+			FileOutputStream output = new FileOutputStream(paths[3 * i]);
+			try{
+				output.write(contents[i]);
+			}
+			finally{
+				output.close();
+			}
+		}
+		String mode = pipelined ? " pipelined" : "";
+		check("compress file" + mode, new Call(){
+			public void run() throws IOException{
+				HuffmanEncoding.encodeFile(paths[0], paths[1], pipelined, false);
+			}
+		}, new Call(){
+			public void run() throws IOException{
+				HuffmanEncoding.encodeFile(paths[3], paths[4], pipelined, false);
+			}
+		});
+		check("decompress file" + mode, new Call(){
+			public void run() throws IOException{
+				HuffmanEncoding.decodeFile(paths[1], paths[2], pipelined);
+			}
+		}, new Call(){
+			public void run() throws IOException{
+				HuffmanEncoding.decodeFile(paths[4], paths[5], pipelined);
+			}
+		});
+		// measuring is only worth something if the calls did their job.
+		for (int i = 0; i < 2; i++){
+			if (!java.util.Arrays.equals(contents[i], java.nio.file.Files.readAllBytes(new File(paths[3 * i + 2]).toPath()))){
+				System.out.println("FAILED file" + mode + " did not decompress to the original content");
+				failed = true;
+			}
+		}
+		for (String path : paths){
+			new File(path).delete();
+		}
+	}
+
+	/**
+	 * main method that runs every check.
+	 * @param args not used
+	 */
+	public static void main(String [] args) throws IOException{
+		checkMemory("text", content(SMALL_LENGTH), content(LARGE_LENGTH));
+		checkMemory("runs", runs(SMALL_LENGTH), runs(LARGE_LENGTH));
+		checkMemory("random bytes", random(SMALL_LENGTH), random(LARGE_LENGTH));
+		File directory = new File(System.getProperty("java.io.tmpdir"), "AllocationTest" + System.nanoTime());
+		directory.mkdirs();
+		try{
+			checkFiles(directory, false);
+			checkFiles(directory, true);
+		}
+		finally{
+			directory.delete();
+		}
+		if (failed){
+			System.exit(1);
+		}
+	}
+}
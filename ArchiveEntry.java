@@ -0,0 +1,79 @@
+
+/**
+ * Class ArchiveEntry.java
+ * Object to store what the central directory of an archive knows about one of its files.
+ * @author nahokitade
+ *
+ */
+public class ArchiveEntry{
+	private String myName;
+	private long myOffset;
+	private long myCompressedSize;
+	private long myOriginalSize;
+	private int myChecksum;
+
+	/**
+	 * Constructor of ArchiveEntry object.
+	 * @param name name of the file
+	 * @param offset position of the file's compressed content in the archive
+	 * @param compressedSize number of bytes of compressed content
+	 * @param originalSize number of bytes the file decompresses to
+	 * @param checksum CRC32C of the original file
+	 */
+	public ArchiveEntry(String name, long offset, long compressedSize, long originalSize, int checksum){
+		// assign instance variables
+		myName = name;
+		myOffset = offset;
+		myCompressedSize = compressedSize;
+		myOriginalSize = originalSize;
+		myChecksum = checksum;
+	}
+
+	/**
+	 * getter method for the name
+	 * @return my name
+	 */
+	public String getName(){
+		return myName;
+	}
+
+	/**
+	 * getter method for the offset
+	 * @return my offset
+	 */
+	public long getOffset(){
+		return myOffset;
+	}
+
+	/**
+	 * getter method for the compressed size
+	 * @return my compressed size
+	 */
+	public long getCompressedSize(){
+		return myCompressedSize;
+	}
+
+	/**
+	 * getter method for the original size
+	 * @return my original size
+	 */
+	public long getOriginalSize(){
+		return myOriginalSize;
+	}
+
+	/**
+	 * getter method for the checksum
+	 * @return my checksum
+	 */
+	public int getChecksum(){
+		return myChecksum;
+	}
+
+	/**
+	 * simple to string method.
+	 */
+	public String toString(){
+		String string = myName + ":" + Long.toString(myOriginalSize) + ":" + Long.toString(myCompressedSize);
+		return string;
+	}
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Class BlockChecksums.java
+ * CRC32C checksums of a file's original content, one per fixed-size block plus one for the
+ * whole file. When built against the checksums stored in a compressed file, every block is
+ * checked as soon as it has been decoded.
+ * @author nahokitade
+ *
+ */
+public class BlockChecksums{
+	/** number of original bytes covered by each block checksum. */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	/** smallest block size accepted when reading, so that a few header bytes cannot claim countless blocks. */
+	public static final int MIN_BLOCK_SIZE = 4 * 1024;
+
+	private int blockSize;            // bytes per block
+	private int[] blockChecksums;     // checksum of every completed block
+	private int numBlocks;            // number of completed blocks
+	private long length;              // number of bytes seen so far
+	private int fileChecksum;         // checksum of the whole file, set by finish()
+	private CRC32C blockCrc = new CRC32C();
+	private CRC32C fileCrc = new CRC32C();
+	private BlockChecksums expected;  // checksums to verify against, or null
+
+	/**
+	 * Constructor for computing the checksums of original content.
+	 * @param blockSize number of bytes covered by each block checksum
+	 */
+	public BlockChecksums(int blockSize){
+		this(blockSize, null);
+	}
+
+	/**
+	 * Constructor for verifying decoded content against stored checksums.
+	 * @param expected the checksums stored with the compressed content
+	 */
+	public BlockChecksums(BlockChecksums expected){
+		this(expected.blockSize, expected);
+	}
+
+	private BlockChecksums(int blockSize, BlockChecksums expected){
+		if (blockSize <= 0){
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+		this.blockSize = blockSize;
+		this.expected = expected;
+		blockChecksums = new int[16];
+	}
+
+	/**
+	 * Adds the bytes between the position and the limit of a buffer. The buffer's position
+	 * and limit are left as they were.
+	 * @param chunk the next bytes of the content
+	 * @throws IOException if a completed block does not match the expected checksum
+	 */
+	public void update(ByteBuffer chunk) throws IOException{
+		int start = chunk.position();
+		int end = chunk.limit();
+		int position = start;
+		while (position < end){
+			// only feed the CRCs up to the end of the current block.
+			int inBlock = (int) (length % blockSize);
+			int count = Math.min(end - position, blockSize - inBlock);
+			chunk.limit(position + count);
+			blockCrc.update(chunk);
+			chunk.position(position);
+			fileCrc.update(chunk);
+			position += count;
+			length += count;
+			if (inBlock + count == blockSize){
+				endBlock();
+			}
+		}
+		chunk.limit(end);
+		chunk.position(start);
+	}
+
+	/**
+	 * Records (and, when verifying, checks) the checksum of the block just completed.
+	 * @throws IOException if it does not match the expected checksum
+	 */
+	private void endBlock() throws IOException{
+		int checksum = (int) blockCrc.getValue();
+		blockCrc.reset();
+		if (expected != null && (numBlocks >= expected.numBlocks || expected.blockChecksums[numBlocks] != checksum)){
+			throw new IOException("Checksum mismatch in block " + numBlocks);
+		}
+		if (numBlocks == blockChecksums.length){
+			blockChecksums = Arrays.copyOf(blockChecksums, numBlocks * 2);
+		}
+		blockChecksums[numBlocks++] = checksum;
+	}
+
+	/**
+	 * Completes the checksums once all the content has been added.
+	 * @throws IOException if, when verifying, the content does not match the expected checksums
+	 */
+	public void finish() throws IOException{
+		// a trailing partial block gets a checksum of its own.
+		if (length % blockSize != 0){
+			endBlock();
+		}
+		fileChecksum = (int) fileCrc.getValue();
+		if (expected != null){
+			if (length != expected.length || numBlocks != expected.numBlocks){
+				throw new IOException("Decoded " + length + " bytes but expected " + expected.length);
+			}
+			if (fileChecksum != expected.fileChecksum){
+				throw new IOException("Checksum mismatch for the whole file");
+			}
+		}
+	}
+
+	/**
+	 * @return the number of content bytes covered
+	 */
+	public long getLength(){
+		return length;
+	}
+
+	/**
+	 * @return the checksum of the whole content, valid after finish()
+	 */
+	public int getFileChecksum(){
+		return fileChecksum;
+	}
+
+	/**
+	 * Writes the block size, length and checksums, byte aligned.
+	 * @param output the writer to write to
+	 * @throws IOException
+	 */
+	public void write(BufferedBitWriter output) throws IOException{
+		output.writeBits(blockSize, 32);
+		output.writeBits((int) (length >>> 32), 32);
+		output.writeBits((int) length, 32);
+		output.writeBits(numBlocks, 32);
+		for (int i = 0; i < numBlocks; i++){
+			output.writeBits(blockChecksums[i], 32);
+		}
+		output.writeBits(fileChecksum, 32);
+	}
+
+	/**
+	 * Reads checksums written by write().
+	 * @param input the reader to read from
+	 * @return the checksums read
+	 * @throws IOException
+	 */
+	public static BlockChecksums read(BufferedBitReader input) throws IOException{
+		int blockSize = input.readBits(32);
+		// (write() only ever uses DEFAULT_BLOCK_SIZE.)
+		if (blockSize < MIN_BLOCK_SIZE){
+			throw new IOException("Invalid checksum block size: " + blockSize);
+		}
+		BlockChecksums checksums = new BlockChecksums(blockSize);
+		checksums.length = ((long) input.readBits(32) << 32) | (input.readBits(32) & 0xFFFFFFFFL);
+		int numBlocks = input.readBits(32);
+		// the block count must agree with the length.
+		if (checksums.length < 0 || numBlocks != (checksums.length + blockSize - 1) / blockSize){
+			throw new IOException("Invalid checksum header");
+		}
+		// grow the array as the checksums are read rather than trusting the count, so that a header claiming
+		// more blocks than the input holds ends in an EOFException before anything large is allocated.
+		for (int i = 0; i < numBlocks; i++){
+			int checksum = input.readBits(32);
+			if (i == checksums.blockChecksums.length){
+				checksums.blockChecksums = Arrays.copyOf(checksums.blockChecksums, i * 2);
+			}
+			checksums.blockChecksums[i] = checksum;
+			checksums.numBlocks = i + 1;
+		}
+		checksums.fileChecksum = input.readBits(32);
+		return checksums;
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class BlockEncoder.java
+ * Writes the huffman codes of content following a BlockPlan: each segment of the content is
+ * written with the codes of its table, and padded to a byte boundary so that the decoder can
+ * switch tables there.
+ * @author nahokitade
+ *
+ */
+public class BlockEncoder{
+	private BlockPlan plan;               // plan of the content
+	private BufferedBitWriter bitOutput;  // writer of the codes
+	private int segment = -1;             // index of the segment in progress
+	private long remaining;               // characters left in the segment in progress
+	private String[] codes;               // codes of the segment in progress, indexed by byte value
+
+	/**
+	 * Constructor
+	 * @param plan the plan of the content to encode
+	 * @param bitOutput the writer to write the codes to, at a byte boundary
+	 */
+	public BlockEncoder(BlockPlan plan, BufferedBitWriter bitOutput){
+		this.plan = plan;
+		this.bitOutput = bitOutput;
+	}
+
+	/**
+	 * Encodes every byte between the position and the limit of a buffer, moving its position to the
+	 * limit. Buffers passed to successive calls are treated as one piece of content.
+	 * @param chunk the bytes to encode
+	 * @throws IOException
+	 */
+	public void encode(ByteBuffer chunk) throws IOException{
+		int end = chunk.limit();
+		while (chunk.hasRemaining()){
+			if (remaining == 0){
+				nextSegment();
+			}
+			// encode no further than the end of the segment.
+			int count = (int) Math.min(remaining, chunk.remaining());
+			chunk.limit(chunk.position() + count);
+			encodeCharacters(chunk);
+			chunk.limit(end);
+			remaining -= count;
+		}
+	}
+
+	/**
+	 * Moves on to the next segment of the plan.
+	 */
+	private void nextSegment() throws IOException{
+		if (segment >= 0){
+			bitOutput.alignToByte();
+		}
+		segment ++;
+		if (segment >= plan.segmentCount()){
+			throw new IllegalStateException("More content than the plan covers");
+		}
+		codes = plan.codes(plan.segmentTable(segment));
+		remaining = plan.segmentLength(segment);
+	}
+
+	/**
+	 * Writes the code of every byte between the position and the limit of a buffer, moving its position to
+	 * the limit.
+	 * @param chunk the characters to encode
+	 * @throws IOException
+	 */
+	private void encodeCharacters(ByteBuffer chunk) throws IOException{
+		while (chunk.hasRemaining()){
+			String code = codes[chunk.get() & 0xFF]; // get that character's code.
+			for (int i = 0; i < code.length(); i++){ // iterate through the code
+				int codeBitInt = code.charAt(i) - '0'; // make each character of the code into an int
+				bitOutput.writeBit(codeBitInt); //write that int (0 or 1s) out into a file.
+			}
+		}
+	}
+
+	/**
+	 * Checks that all the content the plan covers was encoded. Must be called after the last call to encode.
+	 */
+	public void finish(){
+		if (remaining != 0 || segment != plan.segmentCount() - 1){
+			throw new IllegalStateException("Less content than the plan covers");
+		}
+	}
+}
@@ -0,0 +1,362 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Class BlockPlan.java
+ * Plan of which code table every part of some content is written with. The content is cut into
+ * segments, each written with one of the plan's tables; several segments can share a table.
+ * A single plan covers the whole content with one table. An adaptive plan looks at the histograms
+ * of fixed-size blocks of the content and starts a new segment wherever the statistics change
+ * enough that a new table, or a table used earlier, saves more than the segment costs.
+ * @author nahokitade
+ *
+ */
+public class BlockPlan{
+	/** number of content bytes in each block an adaptive plan looks at. */
+	public static final int BLOCK_SIZE = 64 * 1024;
+	// header bits of a segment (table index and length), plus the padding up to the next byte that
+	// HuffmanEncoding.java puts after each segment's codes.
+	private static final int SEGMENT_BITS = 96 + 7;
+
+	private List<int[]> freqTables = new ArrayList<int[]>();  // frequency of every character, 0 if unused
+	private List<CodeTable> codeTables = new ArrayList<CodeTable>();  // codes of every table, made when needed
+	private TableCache cache;  // where to look up the codes of the tables, or null
+	private List<Integer> segmentTables = new ArrayList<Integer>();
+	private List<Long> segmentLengths = new ArrayList<Long>();
+	private long codeBytes;  // bytes taken by the codes of all the segments, known when encoding
+
+	/**
+	 * Constructor of BlockPlan object, with no tables or segments yet.
+	 * @param cache where to look up the codes of the tables, or null to make them every time
+	 */
+	private BlockPlan(TableCache cache){
+		this.cache = cache;
+	}
+
+	/**
+	 * Plans content to be written with one table made from its histogram.
+	 * @param histogram histogram of the whole content
+	 * @param cache where to look up the codes of the table, or null to make them
+	 * @return the plan
+	 */
+	public static BlockPlan single(Histogram histogram, TableCache cache){
+		BlockPlan plan = new BlockPlan(cache);
+		// empty content needs no table and no segment.
+		if (histogram.getLength() > 0){
+			plan.addSegment(plan.addTable(histogram.toFreqTable()), histogram);
+		}
+		return plan;
+	}
+
+	/**
+	 * Plans content to be written with a new table wherever its statistics change.
+	 * @param blocks histograms of the content's consecutive blocks
+	 * @param cache where to look up the codes of the tables, or null to make them
+	 * @return the plan
+	 */
+	public static BlockPlan adaptive(List<Histogram> blocks, TableCache cache){
+		BlockPlan plan = new BlockPlan(cache);
+		Histogram segment = null;  // histogram of the segment in progress
+		int segmentTable = -1;     // table the segment in progress reuses, or -1 if it gets a new one
+		double segmentBits = 0;    // estimated bits of the codes of the segment in progress, if it gets a new one
+		for (Histogram block : blocks){
+			if (segment == null){
+				segment = block.copy();
+				segmentBits = segment.entropyBits();
+				continue;
+			}
+			// cost of adding the block to the segment in progress...
+			double mergedBits = 0;
+			double mergeCost;
+			if (segmentTable == -1){
+				mergedBits = Histogram.entropyBits(segment, block);
+				mergeCost = mergedBits - segmentBits;
+			}
+			else{
+				mergeCost = block.huffmanBits(plan.codes(segmentTable));
+			}
+			// ...against starting a new segment with a table of its own...
+			double newCost = block.entropyBits() + tableBits(block) + SEGMENT_BITS;
+			// ...or with the best table already in the plan.
+			int reuseTable = -1;
+			double reuseCost = Double.MAX_VALUE;
+			for (int table = 0; table < plan.freqTables.size(); table++){
+				long bits = block.huffmanBits(plan.codes(table));
+				// a table without codes for some of the block's characters cannot be used at all.
+				if (bits == Long.MAX_VALUE){
+					continue;
+				}
+				double cost = bits + SEGMENT_BITS;
+				if (cost < reuseCost){
+					reuseTable = table;
+					reuseCost = cost;
+				}
+			}
+			if (mergeCost <= newCost && mergeCost <= reuseCost){
+				segment.merge(block);
+				segmentBits = mergedBits;
+				continue;
+			}
+			plan.endSegment(segment, segmentTable);
+			segment = block.copy();
+			segmentTable = (reuseCost < newCost) ? reuseTable : -1;
+			segmentBits = segment.entropyBits();
+		}
+		if (segment != null){
+			plan.endSegment(segment, segmentTable);
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns the header bits a table made from a histogram takes: its size, then 5 bytes per character.
+	 * @param histogram the histogram the table would be made from
+	 * @return the size of the table in bits
+	 */
+	private static long tableBits(Histogram histogram){
+		return 32 + 40L * histogram.distinctCharacters();
+	}
+
+	/**
+	 * Adds a finished segment, along with a new table for it if it does not reuse one.
+	 * @param segment histogram of the segment
+	 * @param table index of the table the segment reuses, or -1 to make a new one
+	 */
+	private void endSegment(Histogram segment, int table){
+		if (table == -1){
+			table = addTable(segment.toFreqTable());
+		}
+		addSegment(table, segment);
+	}
+
+	/**
+	 * Adds a table to the plan.
+	 * @param freqTable frequency table the codes of the table are made from, indexed by byte value
+	 * @return the index of the table
+	 */
+	private int addTable(int[] freqTable){
+		freqTables.add(freqTable);
+		codeTables.add(null);
+		return freqTables.size() - 1;
+	}
+
+	/**
+	 * Adds a segment to the end of the plan.
+	 * @param table index of the table the segment is written with
+	 * @param segment histogram of the segment
+	 */
+	private void addSegment(int table, Histogram segment){
+		segmentTables.add(table);
+		segmentLengths.add(segment.getLength());
+		codeBytes += (segment.huffmanBits(codes(table)) + 7) / 8;
+	}
+
+	/**
+	 * Cuts content into blocks of BLOCK_SIZE bytes and counts each of them. Buffers passed to successive
+	 * calls are treated as one piece of content. The buffer's position is not moved.
+	 * @param blocks histograms of the blocks so far, the last of which may still be filling up
+	 * @param chunk the next bytes of the content
+	 */
+	public static void addToBlocks(List<Histogram> blocks, ByteBuffer chunk){
+		int end = chunk.limit();
+		int start = chunk.position();
+		while (chunk.hasRemaining()){
+			Histogram block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+			if (block == null || block.getLength() == BLOCK_SIZE){
+				block = new Histogram();
+				blocks.add(block);
+			}
+			int count = (int) Math.min(chunk.remaining(), BLOCK_SIZE - block.getLength());
+			chunk.limit(chunk.position() + count);
+			block.add(chunk);
+			chunk.position(chunk.limit());
+			chunk.limit(end);
+		}
+		chunk.position(start);
+	}
+
+	/**
+	 * @return the number of bytes the plan's header and codes take, when the plan was made for encoding
+	 */
+	public long compressedBytes(){
+		long headerBits = 32 + 32 + (long) SEGMENT_BITS * segmentTables.size();
+		for (int[] freqTable : freqTables){
+			headerBits += 32 + 40L * distinctCharacters(freqTable);
+		}
+		return headerBits / 8 + codeBytes;
+	}
+
+	/**
+	 * @param freqTable a frequency table, indexed by byte value
+	 * @return the number of characters in it
+	 */
+	private static int distinctCharacters(int[] freqTable){
+		int distinct = 0;
+		for (int frequency : freqTable){
+			if (frequency > 0){
+				distinct ++;
+			}
+		}
+		return distinct;
+	}
+
+	/**
+	 * @return the number of tables
+	 */
+	public int tableCount(){
+		return freqTables.size();
+	}
+
+	/**
+	 * @param table index of a table
+	 * @return the frequency table the table's codes are made from, indexed by byte value
+	 */
+	public int[] freqTable(int table){
+		return freqTables.get(table);
+	}
+
+	/**
+	 * @param table index of a table
+	 * @return the codes of the table, with its code tree and decode table
+	 */
+	public CodeTable codeTable(int table){
+		if (codeTables.get(table) == null){
+			codeTables.set(table, TableCache.codeTable(freqTables.get(table), cache));
+		}
+		return codeTables.get(table);
+	}
+
+	/**
+	 * @param table index of a table
+	 * @return the code of every character of the table, indexed by byte value
+	 */
+	public String[] codes(int table){
+		return codeTable(table).getCodes();
+	}
+
+	/**
+	 * @param table index of a table
+	 * @return the number of characters written with the table, over all segments
+	 */
+	public long tableLength(int table){
+		long length = 0;
+		for (int segment = 0; segment < segmentTables.size(); segment++){
+			if (segmentTables.get(segment) == table){
+				length += segmentLengths.get(segment);
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * @return the number of segments
+	 */
+	public int segmentCount(){
+		return segmentTables.size();
+	}
+
+	/**
+	 * @param segment index of a segment
+	 * @return the index of the table the segment is written with
+	 */
+	public int segmentTable(int segment){
+		return segmentTables.get(segment);
+	}
+
+	/**
+	 * @param segment index of a segment
+	 * @return the number of characters in the segment
+	 */
+	public long segmentLength(int segment){
+		return segmentLengths.get(segment);
+	}
+
+	/**
+	 * @return the number of characters in all the segments
+	 */
+	public long totalLength(){
+		long length = 0;
+		for (long segmentLength : segmentLengths){
+			length += segmentLength;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the tables and the segments, byte aligned.
+	 * @param bitOutput the writer to write to
+	 * @throws IOException
+	 */
+	public void write(BufferedBitWriter bitOutput) throws IOException{
+		bitOutput.writeBits(freqTables.size(), 32);
+		for (int[] freqTable : freqTables){
+			// number of characters, then every character with its frequency, in order of character.
+			bitOutput.writeBits(distinctCharacters(freqTable), 32);
+			for (int character = 0; character < 256; character++){
+				if (freqTable[character] > 0){
+					bitOutput.writeBits(character, 8);
+					bitOutput.writeBits(freqTable[character], 32);
+				}
+			}
+		}
+		bitOutput.writeBits(segmentTables.size(), 32);
+		for (int segment = 0; segment < segmentTables.size(); segment++){
+			long length = segmentLengths.get(segment);
+			bitOutput.writeBits(segmentTables.get(segment), 32);
+			bitOutput.writeBits((int) (length >>> 32), 32);
+			bitOutput.writeBits((int) length, 32);
+		}
+	}
+
+	/**
+	 * Reads a plan written by write().
+	 * @param bitInput the reader to read from
+	 * @param cache where to look up the codes of the tables, or null to make them
+	 * @return the plan read
+	 * @throws IOException if the plan is invalid
+	 */
+	public static BlockPlan read(BufferedBitReader bitInput, TableCache cache) throws IOException{
+		BlockPlan plan = new BlockPlan(cache);
+		int numTables = bitInput.readBits(32);
+		if (numTables < 0){
+			throw new IOException("Invalid number of tables: " + numTables);
+		}
+		for (int table = 0; table < numTables; table++){
+			int size = bitInput.readBits(32);
+			if (size <= 0 || size > 256){
+				throw new IOException("Invalid frequency table size: " + size);
+			}
+			int[] freqTable = new int[256];
+			long total = 0;
+			for (int i = 0; i < size; i++){
+				int character = bitInput.readBits(8);
+				int frequency = bitInput.readBits(32);
+				if (frequency <= 0 || freqTable[character] != 0){
+					throw new IOException("Invalid frequency table entry for " + character);
+				}
+				freqTable[character] = frequency;
+				total += frequency;
+			}
+			// (Histogram.toFreqTable never writes a larger table, and a larger one would overflow the code tree.)
+			if (total > Histogram.MAX_TABLE_TOTAL){
+				throw new IOException("Invalid frequency table total: " + total);
+			}
+			plan.addTable(freqTable);
+		}
+		int numSegments = bitInput.readBits(32);
+		if (numSegments < 0){
+			throw new IOException("Invalid number of segments: " + numSegments);
+		}
+		for (int segment = 0; segment < numSegments; segment++){
+			int table = bitInput.readBits(32);
+			long length = ((long) bitInput.readBits(32) << 32) | (bitInput.readBits(32) & 0xFFFFFFFFL);
+			if (table < 0 || table >= numTables || length <= 0){
+				throw new IOException("Invalid segment " + segment);
+			}
+			plan.segmentTables.add(table);
+			plan.segmentLengths.add(length);
+		}
+		return plan;
+	}
+}
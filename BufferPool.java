@@ -0,0 +1,61 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Class BufferPool.java
+ * Thread-local pool of direct byte buffers that the bit readers, bit writers and the passes of
+ * HuffmanEncoding.java draw their I/O and scratch buffers from, so that once a thread has warmed up its pool
+ * compressing or decompressing a file does not allocate new buffers.
+ * The codes, code trees and decode tables come from a TableCache, so a warmed up call only allocates a few
+ * KB of bookkeeping (histogram, frequency and code length tables, plan, checksums and the objects opening
+ * a file), whatever the length of the content. AllocationTest.java checks that every call stays under
+ * MAX_ALLOCATED_PER_CALL.
+ * @author nahokitade
+ *
+ */
+public class BufferPool{
+	/** size in bytes of every pooled buffer. */
+	public static final int BUFFER_SIZE = 64 * 1024;
+	/** most buffers a single thread keeps around; buffers released past this cap are dropped. */
+	public static final int MAX_POOLED_PER_THREAD = 8;
+	/** most bytes of heap a warmed up call to compress or decompress allocates, see the class comment. */
+	public static final long MAX_ALLOCATED_PER_CALL = 8 * 1024;
+
+	// every thread gets its own stack of free buffers, so acquiring and releasing never contend.
+	private static final ThreadLocal<ArrayDeque<ByteBuffer>> freeBuffers = new ThreadLocal<ArrayDeque<ByteBuffer>>(){
+		protected ArrayDeque<ByteBuffer> initialValue(){
+			return new ArrayDeque<ByteBuffer>(MAX_POOLED_PER_THREAD);
+		}
+	};
+
+	/**
+	 * Hands out a cleared direct buffer of BUFFER_SIZE bytes, reusing one released earlier by this
+	 * thread when there is one.
+	 * @return a cleared direct buffer.
+	 */
+	public static ByteBuffer acquire(){
+		ByteBuffer buffer = freeBuffers.get().pollFirst();
+		// only allocate when this thread has nothing left to reuse (i.e. while warming up).
+		if (buffer == null){
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the calling thread's pool. The caller must not use it afterwards.
+	 * @param buffer buffer obtained from acquire(), may be null.
+	 */
+	public static void release(ByteBuffer buffer){
+		// ignore nulls and foreign buffers so callers can release unconditionally in finally blocks.
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE){
+			return;
+		}
+		ArrayDeque<ByteBuffer> pool = freeBuffers.get();
+		// past the cap the buffer is simply left to the garbage collector.
+		if (pool.size() < MAX_POOLED_PER_THREAD){
+			pool.addFirst(buffer);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Class BufferQueue.java
+ * Bounded first-in first-out queue of buffers handed between the caller and a PipelineStage of a ChannelReader
+ * or ChannelWriter. It waits on its own monitor rather than on the conditions of a lock, since waiting on a
+ * java.util.concurrent condition allocates a node every time, which would make every pipelined buffer
+ * allocate a little. Safe to share between threads.
+ * @author nahokitade
+ *
+ */
+public class BufferQueue{
+	private ByteBuffer[] ring;  // the buffers in the queue, starting at head and wrapping around
+	private int head;           // index in ring of the oldest buffer
+	private int size;           // number of buffers in the queue
+
+	/**
+	 * Constructor of BufferQueue object.
+	 * @param capacity the most buffers the queue holds
+	 */
+	public BufferQueue(int capacity){
+		ring = new ByteBuffer[capacity];
+	}
+
+	/**
+	 * Adds a buffer at the end of the queue, which must have room for it.
+	 * @param buffer the buffer to add
+	 * @throws IllegalStateException if the queue is full
+	 */
+	public void add(ByteBuffer buffer){
+		if (!offer(buffer)){
+			throw new IllegalStateException("Queue full");
+		}
+	}
+
+	/**
+	 * Adds a buffer at the end of the queue if there is room for it.
+	 * @param buffer the buffer to add
+	 * @return whether the buffer was added
+	 */
+	public synchronized boolean offer(ByteBuffer buffer){
+		if (size == ring.length){
+			return false;
+		}
+		ring[(head + size) % ring.length] = buffer;
+		size ++;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Adds a buffer at the end of the queue, waiting for room.
+	 * @param buffer the buffer to add
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized void put(ByteBuffer buffer) throws InterruptedException{
+		while (size == ring.length){
+			wait();
+		}
+		ring[(head + size) % ring.length] = buffer;
+		size ++;
+		notifyAll();
+	}
+
+	/**
+	 * Takes the buffer at the front of the queue, waiting for one.
+	 * @return the buffer
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized ByteBuffer take() throws InterruptedException{
+		while (size == 0){
+			wait();
+		}
+		return remove();
+	}
+
+	/**
+	 * Takes the buffer at the front of the queue if there is one.
+	 * @return the buffer, or null if the queue is empty
+	 */
+	public synchronized ByteBuffer poll(){
+		return (size == 0) ? null : remove();
+	}
+
+	/**
+	 * Removes the buffer at the front of the queue, which must not be empty.
+	 * @return the buffer
+	 */
+	private ByteBuffer remove(){
+		ByteBuffer buffer = ring[head];
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		size --;
+		notifyAll();
+		return buffer;
+	}
+}
@@ -1,9 +1,14 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Reads bits from a file, one at a time.  
  * Assumes that the last byte of the file contains the number of
  * valid bits in the previous byte.
+ * The file is read in chunks through a ChannelReader, which can
+ * optionally read ahead on a separate thread.  The bits can also be
+ * read straight from a ByteBuffer, whose limit then plays the part
+ * of the end of the file.
  * 
  * @author Scot Drysdale
  */
@@ -17,7 +22,8 @@ public class BufferedBitReader {
 	int afterNext;  // Byte two after the current byte
 	int bitMask;    // Shows which bit to return
 	
-	BufferedInputStream input;
+	ChannelReader input;  // Reader of the file's chunks, or null when reading from memory
+	ByteBuffer buffer;    // Chunk currently being consumed, null before the first
 	
 	/**
 	 * Constructor
@@ -25,20 +31,72 @@ public class BufferedBitReader {
 	 * @throws IOException
 	 */
 	public BufferedBitReader(String pathName) throws IOException {
-		input = new BufferedInputStream(new FileInputStream(pathName));
-		
-		current = input.read();
-		if(current == -1)
-			throw new EOFException("File did not have two bytes");
-		
-		next = input.read();
-		if(next == -1) 
-			throw new EOFException("File did not have two bytes");	
+		this(pathName, false);
+	}
+	
+	/**
+	 * Constructor
+	 * @param pathName the path name of the file to open
+	 * @param pipelined whether to read the file ahead on a separate thread
+	 * @throws IOException
+	 */
+	public BufferedBitReader(String pathName, boolean pipelined) throws IOException {
+		input = new ChannelReader(pathName, pipelined);
+		start();
+	}
+	
+	/**
+	 * Constructor for reading from memory.  The bits are read from the
+	 * buffer's position up to its limit, advancing its position.
+	 * @param source the buffer to read
+	 * @throws IOException
+	 */
+	public BufferedBitReader(ByteBuffer source) throws IOException {
+		buffer = source;
+		start();
+	}
+	
+	/**
+	 * Reads the first bytes, which the constructors need to look ahead at.
+	 * @throws IOException
+	 */
+	private void start() throws IOException {
+		try {
+			current = readByte();
+			if(current == -1)
+				throw new EOFException("File did not have two bytes");
+			
+			next = readByte();
+			if(next == -1) 
+				throw new EOFException("File did not have two bytes");	
+		}
+		catch(IOException e) {
+			close();
+			throw e;
+		}
 		
-		afterNext = input.read();
+		afterNext = readByte();
 		bitMask = 128;   // a 1 in leftmost bit position
 	}
 	
+	/**
+	 * Returns the next byte of the file as an int from 0 to 255,
+	 * moving on to the next chunk when the current one runs dry.
+	 * 
+	 * @return the byte read, or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int readByte() throws IOException {
+		if(buffer == null || !buffer.hasRemaining()) {
+			if(input == null)   // Reading from memory, and the buffer is used up
+				return -1;
+			buffer = input.next();
+			if(buffer == null)
+				return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+	
 	
 	/**
 	 * Reads a bit and returns it as a 0 or a 1.
@@ -78,18 +136,87 @@ public class BufferedBitReader {
       	bitMask = 128;           // Leftmost bit next
       	current = next;
       	next = afterNext;
-      	afterNext = input.read();
+      	afterNext = readByte();
       }
       return returnBit;
 		}
 	}
 	
+	/**
+	 * Skips the bits left before the next byte boundary, if not
+	 * already there.
+	 * 
+	 * @throws IOException
+	 */
+	public void alignToByte() throws IOException {
+		while(bitMask != 128 && readBit() != -1)
+			;
+	}
+	
+	/**
+	 * Reads the next 8 bits at once.  The reader must be at a byte
+	 * boundary.  The final byte is returned whole even if only some of
+	 * its bits are valid; the invalid low bits are zeros.
+	 * 
+	 * @return the byte read, from 0 to 255, or -1 when all bits have been returned
+	 * @throws IOException if the final byte's count of valid bits left the
+	 * reader inside that byte, which only happens with malformed input
+	 */
+	public int readAlignedByte() throws IOException {
+		if(bitMask != 128) {
+			if(afterNext != -1)
+				throw new IllegalStateException("Not at a byte boundary");
+			// Only the final byte, with a count that does not match what
+			// was read from it, can leave the reader off a byte boundary.
+			if(next == 0)
+				return -1;
+			throw new IOException("Final byte of the file is not at a byte boundary");
+		}
+		
+		int returnByte = current;
+		if(afterNext == -1) {  // Is current the final byte?
+			if(next == 0)        // No more bits in the final byte to return
+				return -1;
+			next = 0;            // Nothing is left to return after this
+			return returnByte;
+		}
+		current = next;
+		next = afterNext;
+		afterNext = readByte();
+		return returnByte;
+	}
+	
+	/**
+	 * Reads numBits bits, most significant bit first, and returns them
+	 * in the low bits of an int.
+	 * 
+	 * @param numBits how many bits to read, from 0 to 32
+	 * @return the bits read
+	 * @throws IOException
+	 * @throws EOFException if the bits run out first
+	 */
+	public int readBits(int numBits) throws IOException {
+		if(numBits < 0 || numBits > 32)
+			throw new IllegalArgumentException("Argument to readBits: numBits = " + numBits);
+		
+		int value = 0;
+		for(int i = 0; i < numBits; i++) {
+			int bit = readBit();
+			if(bit == -1)
+				throw new EOFException("File ended in the middle of a value");
+			value = (value << 1) | bit;
+		}
+		return value;
+	}
+	
 	/**
 	 * Close this bitReader.
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		input.close();
+		buffer = null;
+		if(input != null)
+			input.close();
 	}
 	
 	
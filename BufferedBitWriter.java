@@ -1,19 +1,21 @@
-import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Writes bits to a file.  Accumulates bits until gets a byte, 
  * then writes it.  On closing writes an additional byte holding
  * the number of valid bits in the final byte written.
+ * Bytes go out through a ChannelWriter, which can optionally
+ * write them on a separate thread, or straight into a ByteBuffer.
  * 
  * @author Scot Drysdale
  */
 public class BufferedBitWriter {
   private byte currentByte;     // The byte that is being filled
   private byte numBitsWritten;  // Number of bits written to the current byte
-  private BufferedOutputStream output; // The output byte stream
+  private ChannelWriter output; // The output byte channel, or null when writing to target
+  private ByteBuffer target;    // The buffer written to when there is no output channel
   
   /**
    * Constructor
@@ -21,9 +23,30 @@ public class BufferedBitWriter {
    * @throws FileNotFoundException
    */
   public BufferedBitWriter(String pathName) throws FileNotFoundException {
+  	this(pathName, false);
+  }
+  
+  /**
+   * Constructor
+   * @param pathName the path name of the file to be written
+   * @param pipelined whether to write the file on a separate thread
+   * @throws FileNotFoundException
+   */
+  public BufferedBitWriter(String pathName, boolean pipelined) throws FileNotFoundException {
   	currentByte = 0;
   	numBitsWritten = 0;
-  	output = new BufferedOutputStream(new FileOutputStream(pathName));
+  	output = new ChannelWriter(pathName, pipelined);
+  }
+  
+  /**
+   * Constructor for writing into memory.  Bytes are put straight into
+   * the buffer, starting at its position.
+   * @param target the buffer to be written
+   */
+  public BufferedBitWriter(ByteBuffer target) {
+  	currentByte = 0;
+  	numBitsWritten = 0;
+  	this.target = target;
   }
   
   /**
@@ -38,12 +61,47 @@ public class BufferedBitWriter {
   	numBitsWritten++;
   	currentByte |= bit << (8 - numBitsWritten);
   	if(numBitsWritten == 8) {  // Have we got a full byte?
-  		output.write(currentByte);
+  		writeByte(currentByte);
   		numBitsWritten = 0;
   		currentByte = 0;
   	}
   }
   
+  /**
+   * writes the low numBits bits of value, most significant bit first
+   * @param value the bits to be written
+   * @param numBits how many bits to write, from 0 to 32
+   * @throws IOException
+   */
+  public void writeBits(int value, int numBits) throws IOException {
+  	if(numBits < 0 || numBits > 32)
+  		throw new IllegalArgumentException("Argument to writeBits: numBits = " + numBits);
+  	
+  	for(int i = numBits - 1; i >= 0; i--)
+  		writeBit((value >>> i) & 1);
+  }
+  
+  /**
+   * writes 0 bits until the next byte boundary, if not already there
+   * @throws IOException
+   */
+  public void alignToByte() throws IOException {
+  	while(numBitsWritten != 0)
+  		writeBit(0);
+  }
+  
+  /**
+   * writes a whole byte to the file or the target buffer
+   * @param b the byte to be written
+   * @throws IOException
+   */
+  private void writeByte(byte b) throws IOException {
+  	if(output != null)
+  		output.write(b);
+  	else
+  		target.put(b);
+  }
+  
   /**
    * Closes this bitstream.  Writes any partial byte, followed by 
    * the number of valid bits in the final byte.
@@ -55,9 +113,10 @@ public class BufferedBitWriter {
    * @throws IOException
    */
   public void close() throws IOException {
-  	output.write(currentByte);
-  	output.write(numBitsWritten);
+  	writeByte(currentByte);
+  	writeByte(numBitsWritten);
 
-  	output.close();
+  	if(output != null)
+  		output.close();
   }
 }
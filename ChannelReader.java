@@ -0,0 +1,193 @@
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Class ChannelReader.java
+ * Reads a file in buffer-sized chunks through buffers borrowed from BufferPool.
+ * In pipelined mode a PipelineStage reads ahead into a small ring of buffers, so the
+ * disk keeps working while the caller is busy with the chunk it was handed last.
+ * @author nahokitade
+ *
+ */
+public class ChannelReader{
+	/** number of buffers in the ring of a pipelined reader: one being used, two being filled. */
+	public static final int PIPELINE_BUFFERS = 3;
+
+	// marks the end of the file in the queue of filled buffers.
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private FileChannel input;     // channel of the file being read
+	private ByteBuffer current;    // buffer last handed out by next(), recycled on the following call
+	private ByteBuffer[] buffers;  // every buffer this reader borrowed, given back on close
+	private boolean finished;      // whether next() has already reported the end of the file
+
+	// only used in pipelined mode.
+	private BufferQueue filled; // buffers ready for the caller, in file order
+	private BufferQueue empty;  // buffers the read-ahead thread may fill
+	private PipelineStage readAhead;
+	private volatile IOException failure;          // error hit by the read-ahead thread
+
+	/**
+	 * Constructor
+	 * @param pathName the path name of the file to read
+	 * @param pipelined whether to read ahead on a thread of the pool shared by pipeline stages
+	 * @throws FileNotFoundException
+	 */
+	public ChannelReader(String pathName, boolean pipelined) throws FileNotFoundException{
+		this(pathName, pipelined ? PipelineStage.shared() : null);
+	}
+
+	/**
+	 * Constructor
+	 * @param pathName the path name of the file to read
+	 * @param executor executor to read ahead on, which must start the read-ahead right away or refuse it, or
+	 * null to read on the caller's thread. If the executor refuses, the file is read on the caller's thread.
+	 * @throws FileNotFoundException
+	 */
+	public ChannelReader(String pathName, Executor executor) throws FileNotFoundException{
+		input = new FileInputStream(pathName).getChannel();
+		if (executor == null){
+			// a single buffer, filled on the caller's thread.
+			current = BufferPool.acquire();
+			buffers = new ByteBuffer[] {current};
+			return;
+		}
+		buffers = new ByteBuffer[PIPELINE_BUFFERS];
+		filled = new BufferQueue(PIPELINE_BUFFERS + 1); // room for every buffer plus END
+		empty = new BufferQueue(PIPELINE_BUFFERS);
+		for (int i = 0; i < PIPELINE_BUFFERS; i++){
+			buffers[i] = BufferPool.acquire();
+			empty.add(buffers[i]);
+		}
+		readAhead = PipelineStage.start(executor, new Runnable(){
+			public void run(){
+				readAheadLoop();
+			}
+		});
+		if (readAhead == null){
+			// no thread to spare: read on the caller's thread, with the first buffer.
+			current = empty.poll();
+			filled = null;
+			empty = null;
+		}
+	}
+
+	/**
+	 * Fills a buffer from the input until it is full or the file ends.
+	 * @param buffer the buffer to fill, which is left flipped for reading
+	 * @return true if the end of the file was reached
+	 * @throws IOException
+	 */
+	private boolean fill(ByteBuffer buffer) throws IOException{
+		buffer.clear();
+		boolean endOfFile = false;
+		while (buffer.hasRemaining() && !endOfFile){
+			endOfFile = input.read(buffer) == -1;
+		}
+		buffer.flip();
+		return endOfFile;
+	}
+
+	/**
+	 * Body of the read-ahead thread: fills empty buffers in order until the end of the file.
+	 */
+	private void readAheadLoop(){
+		try{
+			boolean endOfFile = false;
+			while (!endOfFile){
+				ByteBuffer buffer = empty.take();
+				endOfFile = fill(buffer);
+				// only pass on buffers that hold something.
+				if (buffer.hasRemaining()){
+					filled.put(buffer);
+				}
+				else{
+					empty.put(buffer);
+				}
+			}
+		}
+		catch (IOException e){
+			failure = e;
+		}
+		catch (InterruptedException e){
+			// the reader was closed early; nobody is waiting for the rest of the file.
+			return;
+		}
+		filled.offer(END);
+	}
+
+	/**
+	 * Returns the next chunk of the file. The buffer returned by the previous call goes back to
+	 * the reader and must no longer be used.
+	 * @return a buffer flipped for reading, or null at the end of the file
+	 * @throws IOException
+	 */
+	public ByteBuffer next() throws IOException{
+		if (finished){
+			return null;
+		}
+		if (readAhead == null){
+			// not pipelined: read the chunk right here.
+			fill(current);
+			if (current.hasRemaining()){
+				return current;
+			}
+			finished = true;
+			return null;
+		}
+		try{
+			// hand the last chunk back to the read-ahead thread and wait for the one after it.
+			if (current != null){
+				empty.put(current);
+				current = null;
+			}
+			ByteBuffer buffer = filled.take();
+			if (buffer == END){
+				finished = true;
+				if (failure != null){
+					throw failure;
+				}
+				return null;
+			}
+			current = buffer;
+			return current;
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the read-ahead thread");
+		}
+	}
+
+	/**
+	 * Stops any read-ahead, closes the file and gives the buffers back to the pool.
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		try{
+			if (readAhead != null){
+				readAhead.cancel();
+				try{
+					readAhead.await();
+				}
+				catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		finally{
+			input.close();
+			// the buffers are only given back once no other thread can touch them.
+			if (readAhead == null || readAhead.isFinished()){
+				for (ByteBuffer buffer : buffers){
+					BufferPool.release(buffer);
+				}
+			}
+			current = null;
+		}
+	}
+}
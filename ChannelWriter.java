@@ -0,0 +1,210 @@
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Class ChannelWriter.java
+ * Writes bytes to a file through buffers borrowed from BufferPool.
+ * In pipelined mode full buffers are handed to a PipelineStage that writes them out,
+ * so the caller can keep filling the next buffer while the disk is busy.
+ * @author nahokitade
+ *
+ */
+public class ChannelWriter{
+	/** number of buffers in the ring of a pipelined writer: one being filled, two being written. */
+	public static final int PIPELINE_BUFFERS = 3;
+
+	// tells the write-behind thread that no more buffers are coming.
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private FileChannel output;    // channel of the file being written
+	private ByteBuffer current;    // buffer currently being filled by the caller
+	private ByteBuffer[] buffers;  // every buffer this writer borrowed, given back on close
+
+	// only used in pipelined mode.
+	private BufferQueue filled; // buffers waiting to be written, in file order
+	private BufferQueue empty;  // buffers the caller may fill next
+	private PipelineStage writeBehind;
+	private volatile IOException failure;          // error hit by the write-behind thread
+
+	/**
+	 * Constructor
+	 * @param pathName the path name of the file to write
+	 * @param pipelined whether to write on a thread of the pool shared by pipeline stages
+	 * @throws FileNotFoundException
+	 */
+	public ChannelWriter(String pathName, boolean pipelined) throws FileNotFoundException{
+		this(pathName, pipelined ? PipelineStage.shared() : null);
+	}
+
+	/**
+	 * Constructor
+	 * @param pathName the path name of the file to write
+	 * @param executor executor to write behind on, which must start the write-behind right away or refuse
+	 * it, or null to write on the caller's thread. If the executor refuses, the file is written on the
+	 * caller's thread.
+	 * @throws FileNotFoundException
+	 */
+	public ChannelWriter(String pathName, Executor executor) throws FileNotFoundException{
+		output = new FileOutputStream(pathName).getChannel();
+		if (executor == null){
+			current = BufferPool.acquire();
+			buffers = new ByteBuffer[] {current};
+			return;
+		}
+		buffers = new ByteBuffer[PIPELINE_BUFFERS];
+		filled = new BufferQueue(PIPELINE_BUFFERS + 1); // room for every buffer plus END
+		empty = new BufferQueue(PIPELINE_BUFFERS);
+		for (int i = 0; i < PIPELINE_BUFFERS; i++){
+			buffers[i] = BufferPool.acquire();
+			empty.add(buffers[i]);
+		}
+		current = empty.poll();
+		writeBehind = PipelineStage.start(executor, new Runnable(){
+			public void run(){
+				writeBehindLoop();
+			}
+		});
+		if (writeBehind == null){
+			// no thread to spare: write on the caller's thread.
+			filled = null;
+			empty = null;
+		}
+	}
+
+	/**
+	 * Writes all of a flipped buffer to the output and clears it.
+	 * @param buffer the buffer to write
+	 * @throws IOException
+	 */
+	private void drain(ByteBuffer buffer) throws IOException{
+		while (buffer.hasRemaining()){
+			output.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Body of the write-behind thread: writes full buffers in order until told to stop.
+	 */
+	private void writeBehindLoop(){
+		try{
+			ByteBuffer buffer;
+			while ((buffer = filled.take()) != END){
+				// after a failure keep recycling buffers so the caller never blocks, but stop writing.
+				if (failure == null){
+					try{
+						drain(buffer);
+					}
+					catch (IOException e){
+						failure = e;
+					}
+				}
+				buffer.clear();
+				empty.put(buffer);
+			}
+		}
+		catch (InterruptedException e){
+			// the writer was abandoned; nothing more will be written.
+		}
+	}
+
+	/**
+	 * Writes a single byte.
+	 * @param b the byte to write
+	 * @throws IOException
+	 */
+	public void write(byte b) throws IOException{
+		if (!current.hasRemaining()){
+			flush();
+		}
+		current.put(b);
+	}
+
+	/**
+	 * Writes all the bytes between the position and the limit of a buffer, leaving its position at
+	 * the limit.
+	 * @param src the bytes to write
+	 * @throws IOException
+	 */
+	public void write(ByteBuffer src) throws IOException{
+		int end = src.limit();
+		while (src.hasRemaining()){
+			if (!current.hasRemaining()){
+				flush();
+			}
+			// copy as much as fits into the current buffer.
+			src.limit(src.position() + Math.min(src.remaining(), current.remaining()));
+			current.put(src);
+			src.limit(end);
+		}
+	}
+	
+	/**
+	 * Passes on everything put into the current buffer so far and starts a new one.
+	 * @return the buffer to fill next, which is empty
+	 * @throws IOException
+	 */
+	public ByteBuffer flush() throws IOException{
+		current.flip();
+		if (writeBehind == null){
+			drain(current);
+			return current;
+		}
+		try{
+			filled.put(current);
+			current = empty.take();
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the write-behind thread");
+		}
+		if (failure != null){
+			throw failure;
+		}
+		return current;
+	}
+
+	/**
+	 * Writes out everything still buffered, closes the file and gives the buffers back to the pool.
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		try{
+			current.flip();
+			if (writeBehind == null){
+				drain(current);
+			}
+			else{
+				try{
+					// hand over the last buffer, then wait for the thread to write everything.
+					filled.put(current);
+					filled.put(END);
+					writeBehind.await();
+				}
+				catch (InterruptedException e){
+					writeBehind.cancel();
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the write-behind thread");
+				}
+				if (failure != null){
+					throw failure;
+				}
+			}
+		}
+		finally{
+			output.close();
+			// the buffers are only given back once no other thread can touch them.
+			if (writeBehind == null || writeBehind.isFinished()){
+				for (ByteBuffer buffer : buffers){
+					BufferPool.release(buffer);
+				}
+			}
+			current = null;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+import java.util.*;
+
+/**
+ * Class CodeTable.java
+ * Everything needed to encode and decode with one code table: the length of every character's code, the
+ * canonical codes made from those lengths, the code tree matching the codes and, once it is worth building,
+ * the decode table. Canonical codes depend only on the code lengths, so frequency tables of different
+ * content that give the same lengths share one CodeTable (see TableCache.java). Safe to share between threads.
+ * @author nahokitade
+ *
+ */
+public class CodeTable{
+	private byte[] lengths;                     // length of every character's code, indexed by byte value, 0 if unused
+	private String[] codes;                     // code of every character, indexed by byte value
+	private BinaryTree<CharFrequency> codeTree; // tree of the codes, null if there are none
+	private DecodeTable decodeTable;            // built the first time it is worth it
+
+	/**
+	 * Arrays that lengthsFor builds the huffman tree in, kept for each thread. Leaves are nodes 0 to 255 at most
+	 * and inner nodes follow, so there are at most 511 nodes.
+	 */
+	private static class Scratch{
+		long[] freqs = new long[511];     // frequency of every node
+		int[] parents = new int[511];     // parent of every node but the root
+		int[] depths = new int[511];      // depth of every node
+		int[] heap = new int[256];        // node numbers of the trees not merged yet, as a binary heap
+		int[] characters = new int[256];  // character of every leaf
+	}
+
+	private static final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>(){
+		protected Scratch initialValue(){
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * Constructor of CodeTable object, which assigns canonical codes: shorter codes come first, codes of
+	 * the same length go in order of character, and every code is the one before it plus one.
+	 * @param lengths length of every character's code, indexed by byte value, 0 for characters without
+	 * a code. The lengths must come from a code tree (see lengthsFor), and must not be changed afterwards.
+	 */
+	public CodeTable(byte[] lengths){
+		this.lengths = lengths;
+		codes = new String[256];
+		long code = 0;
+		int codeLength = 0;
+		int count = 0;
+		int lastCharacter = 0;
+		for (int length = 1; length <= 64; length++){
+			for (int character = 0; character < 256; character++){
+				if (lengths[character] != length){
+					continue;
+				}
+				// make room for the longer code by adding 0s at the end.
+				code <<= (length - codeLength);
+				codeLength = length;
+				String bits = Long.toBinaryString(code);
+				// pad with 0s at the front up to the code's length.
+				StringBuilder padded = new StringBuilder();
+				for (int i = bits.length(); i < length; i++){
+					padded.append('0');
+				}
+				codes[character] = padded.append(bits).toString();
+				code ++;
+				count ++;
+				lastCharacter = character;
+			}
+		}
+		// a single character's code "0" is decoded at a leaf root, as HuffmanEncoding.decodeWithTree does.
+		if (count == 1){
+			codeTree = new BinaryTree<CharFrequency>(new CharFrequency((char) lastCharacter, 0));
+		}
+		else if (count > 1){
+			codeTree = treeFor(codes);
+		}
+	}
+
+	/**
+	 * Works out the length of every character's code for a frequency table, as the depth of every leaf of the
+	 * huffman tree. The tree is built the way the original huffman coder built it, merging the two trees of
+	 * least frequency taken from a binary heap, but on arrays of node numbers kept for each thread rather than
+	 * on tree objects, so that looking up a cached table allocates next to nothing.
+	 * @param freqTable Frequency table of the characters of some content, indexed by byte value.
+	 * @return the length of every character's code, indexed by byte value, 0 for characters not in the table.
+	 * A single character gets a code of length 1.
+	 */
+	public static byte[] lengthsFor(int[] freqTable){
+		byte[] lengths = new byte[256];
+		Scratch scratch = scratches.get();
+		long[] freqs = scratch.freqs;
+		int[] heap = scratch.heap;
+		int[] parents = scratch.parents;
+		// every character is a leaf, numbered in order of character.
+		int nodes = 0;
+		int size = 0;
+		for (int character = 0; character < 256; character++){
+			if (freqTable[character] > 0){
+				scratch.characters[nodes] = character;
+				freqs[nodes] = freqTable[character];
+				size = heapAdd(heap, size, freqs, nodes++);
+			}
+		}
+		if (nodes == 1){
+			lengths[scratch.characters[0]] = 1;
+			return lengths;
+		}
+		int leaves = nodes;
+		// merge the two least frequent trees under a new inner node until only one is left.
+		while (size > 1){
+			int smallest1 = heap[0];
+			size = heapPoll(heap, size, freqs);
+			int smallest2 = heap[0];
+			size = heapPoll(heap, size, freqs);
+			freqs[nodes] = freqs[smallest1] + freqs[smallest2];
+			parents[smallest1] = nodes;
+			parents[smallest2] = nodes;
+			size = heapAdd(heap, size, freqs, nodes++);
+		}
+		// every node is numbered after its children, so going backwards from the root gives every parent's
+		// depth before its children's.
+		int[] depths = scratch.depths;
+		depths[nodes - 1] = 0;
+		for (int node = nodes - 2; node >= 0; node--){
+			depths[node] = depths[parents[node]] + 1;
+		}
+		for (int leaf = 0; leaf < leaves; leaf++){
+			lengths[scratch.characters[leaf]] = (byte) depths[leaf];
+		}
+		return lengths;
+	}
+
+	/**
+	 * Adds a node to a binary heap ordered by frequency, moving it up past every parent of greater frequency
+	 * (the same order java.util.PriorityQueue keeps, so that equal frequencies are merged in the same order).
+	 * @param heap the node numbers in the heap
+	 * @param size the number of nodes in the heap
+	 * @param freqs the frequency of every node
+	 * @param node the node to add
+	 * @return the new number of nodes in the heap
+	 */
+	private static int heapAdd(int[] heap, int size, long[] freqs, int node){
+		int k = size;
+		while (k > 0){
+			int parent = (k - 1) >>> 1;
+			if (freqs[node] >= freqs[heap[parent]]){
+				break;
+			}
+			heap[k] = heap[parent];
+			k = parent;
+		}
+		heap[k] = node;
+		return size + 1;
+	}
+
+	/**
+	 * Removes the node at the top of a binary heap ordered by frequency, moving the last node down from the
+	 * top past every child of smaller frequency, as java.util.PriorityQueue does.
+	 * @param heap the node numbers in the heap
+	 * @param size the number of nodes in the heap
+	 * @param freqs the frequency of every node
+	 * @return the new number of nodes in the heap
+	 */
+	private static int heapPoll(int[] heap, int size, long[] freqs){
+		size --;
+		int node = heap[size];
+		int k = 0;
+		int half = size >>> 1;
+		while (k < half){
+			int child = 2 * k + 1;
+			if (child + 1 < size && freqs[heap[child]] > freqs[heap[child + 1]]){
+				child ++;
+			}
+			if (freqs[node] <= freqs[heap[child]]){
+				break;
+			}
+			heap[k] = heap[child];
+			k = child;
+		}
+		if (size > 0){
+			heap[k] = node;
+		}
+		return size;
+	}
+
+	/**
+	 * Builds the code tree of two or more codes, going left for 0 and right for 1.
+	 * @param codes code of every character, indexed by byte value
+	 * @return the code tree
+	 */
+	private static BinaryTree<CharFrequency> treeFor(String[] codes){
+		BinaryTree<CharFrequency> root = new BinaryTree<CharFrequency>(new CharFrequency(null, 0));
+		for (int character = 0; character < 256; character++){
+			String code = codes[character];
+			if (code == null){
+				continue;
+			}
+			CharFrequency leaf = new CharFrequency((char) character, 0);
+			BinaryTree<CharFrequency> node = root;
+			for (int i = 0; i < code.length(); i++){
+				boolean last = (i == code.length() - 1);
+				BinaryTree<CharFrequency> child = (code.charAt(i) == '0') ? node.getLeft() : node.getRight();
+				if (child == null){
+					child = new BinaryTree<CharFrequency>(last ? leaf : new CharFrequency(null, 0));
+					if (code.charAt(i) == '0'){
+						node.setLeft(child);
+					}
+					else{
+						node.setRight(child);
+					}
+				}
+				node = child;
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * @return the length of every character's code, indexed by byte value; must not be changed
+	 */
+	public byte[] getLengths(){
+		return lengths;
+	}
+
+	/**
+	 * @return the code of every character, indexed by byte value; must not be changed
+	 */
+	public String[] getCodes(){
+		return codes;
+	}
+
+	/**
+	 * @return the code tree, or null if there are no codes
+	 */
+	public BinaryTree<CharFrequency> getCodeTree(){
+		return codeTree;
+	}
+
+	/**
+	 * Returns the decode table, building it first if asked to. Once built it is kept, and always returned,
+	 * since it then costs nothing to use.
+	 * @param build whether to build the table if it has not been built yet
+	 * @return the decode table, or null if it has not been built
+	 */
+	public synchronized DecodeTable getDecodeTable(boolean build){
+		if (decodeTable == null && build){
+			decodeTable = new DecodeTable(codeTree);
+		}
+		return decodeTable;
+	}
+}
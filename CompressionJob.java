@@ -0,0 +1,109 @@
+import java.io.*;
+
+/**
+ * Class CompressionJob.java
+ * Object to store one file a HuffmanClient asks a HuffmanDaemon to compress, decompress or verify, along
+ * with how it is sent over the daemon's socket.
+ * @author nahokitade
+ *
+ */
+public class CompressionJob{
+	/** compress the input file into the output file. */
+	public static final int COMPRESS = 0;
+	/** decompress the input file into the output file. */
+	public static final int DECOMPRESS = 1;
+	/** verify the input file against its checksums; there is no output file. */
+	public static final int VERIFY = 2;
+
+	private int myOperation;
+	private boolean myAdaptive;
+	private String myInputPath;
+	private String myOutputPath;
+
+	/**
+	 * Constructor of CompressionJob object.
+	 * @param operation COMPRESS, DECOMPRESS or VERIFY
+	 * @param adaptive whether to switch code tables where the statistics of the file change, when compressing
+	 * @param inputPath absolute path of the file to read
+	 * @param outputPath absolute path of the file to write, or null when verifying
+	 */
+	public CompressionJob(int operation, boolean adaptive, String inputPath, String outputPath){
+		if (operation < COMPRESS || operation > VERIFY){
+			throw new IllegalArgumentException("Invalid operation: " + operation);
+		}
+		// assign instance variables
+		myOperation = operation;
+		myAdaptive = adaptive;
+		myInputPath = inputPath;
+		myOutputPath = outputPath;
+	}
+
+	/**
+	 * getter method for the operation
+	 * @return my operation
+	 */
+	public int getOperation(){
+		return myOperation;
+	}
+
+	/**
+	 * getter method for the adaptive flag
+	 * @return my adaptive flag
+	 */
+	public boolean isAdaptive(){
+		return myAdaptive;
+	}
+
+	/**
+	 * getter method for the input path
+	 * @return my input path
+	 */
+	public String getInputPath(){
+		return myInputPath;
+	}
+
+	/**
+	 * getter method for the output path
+	 * @return my output path, or null when verifying
+	 */
+	public String getOutputPath(){
+		return myOutputPath;
+	}
+
+	/**
+	 * Writes the job: its operation, its adaptive flag, then its paths.
+	 * @param output the stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream output) throws IOException{
+		output.writeByte(myOperation);
+		output.writeBoolean(myAdaptive);
+		output.writeUTF(myInputPath);
+		output.writeUTF((myOutputPath != null) ? myOutputPath : "");
+	}
+
+	/**
+	 * Reads a job written by write().
+	 * @param input the stream to read from
+	 * @return the job read
+	 * @throws IOException if the job is invalid
+	 */
+	public static CompressionJob read(DataInputStream input) throws IOException{
+		int operation = input.readByte();
+		boolean adaptive = input.readBoolean();
+		String inputPath = input.readUTF();
+		String outputPath = input.readUTF();
+		if (operation < COMPRESS || operation > VERIFY){
+			throw new IOException("Invalid operation: " + operation);
+		}
+		return new CompressionJob(operation, adaptive, inputPath, (operation == VERIFY) ? null : outputPath);
+	}
+
+	/**
+	 * simple to string method.
+	 */
+	public String toString(){
+		String[] operations = {"compress", "decompress", "verify"};
+		return operations[myOperation] + ":" + myInputPath;
+	}
+}
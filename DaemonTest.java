@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Class DaemonTest.java
+ * Checks a HuffmanDaemon end to end: starts one on a socket in a temporary directory, sends it compress,
+ * decompress and verify jobs for a larger file and a batch of small ones, along with a corrupt compressed file
+ * and a missing file, and checks that every job gets an answer, that only the bad ones fail, and that every
+ * file decompresses to its original content. Then stops the daemon.
+ * Run with "java DaemonTest"; it prints what it checked and exits with status 1 if a check fails.
+ * @author nahokitade
+ *
+ */
+public class DaemonTest{
+	/** number of small files, enough for the daemon to batch them. */
+	private static final int SMALL_FILES = 20;
+	private static final int SMALL_LENGTH = 4 * 1024;
+	private static final int LARGE_LENGTH = 2 << 20;
+
+	private static boolean failed;
+
+	/**
+	 * Makes some text-like content: lowercase letters, spaces and newlines.
+	 * @param length number of bytes
+	 * @param seed seed of the random content, so that files differ
+	 * @return the content
+	 */
+	private static byte[] content(int length, long seed){
+		byte[] content = new byte[length];
+		Random random = new Random(seed);
+		for (int i = 0; i < length; i++){
+			int r = random.nextInt(32);
+			content[i] = (byte) ((r < 26) ? 'a' + r : (r < 31) ? ' ' : '\n');
+		}
+		return content;
+	}
+
+	/**
+	 * Prints the result of a check and remembers if it failed.
+	 * @param ok whether the check passed
+	 * @param what what was checked
+	 */
+	private static void check(boolean ok, String what){
+		System.out.println((ok ? "ok     " : "FAILED ") + what);
+		failed |= !ok;
+	}
+
+	/**
+	 * Submits jobs and checks that every one of them is answered, and that exactly the expected ones failed.
+	 * @param client the client connected to the daemon
+	 * @param name what the jobs are
+	 * @param jobs the jobs
+	 * @param failing the jobs expected to fail
+	 * @throws IOException
+	 */
+	private static void submit(HuffmanClient client, String name, List<CompressionJob> jobs,
+			Set<CompressionJob> failing) throws IOException{
+		List<String> errors = client.submit(jobs);
+		check(errors.size() == jobs.size(), name + ": " + errors.size() + " answers for " + jobs.size() + " jobs");
+		for (int i = 0; i < Math.min(errors.size(), jobs.size()); i++){
+			boolean shouldFail = failing.contains(jobs.get(i));
+			if ((errors.get(i) != null) != shouldFail){
+				check(false, name + ": " + jobs.get(i) + (shouldFail ? " should have failed" : " failed: " + errors.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * main method that runs every check.
+	 * @param args not used
+	 */
+	public static void main(String [] args) throws Exception{
+		Path directory = Files.createTempDirectory("DaemonTest");
+		String socketPath = directory.resolve("daemon.sock").toString();
+		final HuffmanDaemon daemon = new HuffmanDaemon(socketPath, 4, 16);
+		Thread server = new Thread(){
+			public void run(){
+				try{
+					daemon.serve();
+				}
+				catch (IOException e){
+					e.printStackTrace();
+				}
+			}
+		};
+		server.start();
+		List<Path> files = new ArrayList<Path>();
+		try{
+			// a larger file, run on its own, and small ones, run in batches.
+			List<byte[]> contents = new ArrayList<byte[]>();
+			contents.add(content(LARGE_LENGTH, 0));
+			for (int i = 1; i <= SMALL_FILES; i++){
+				contents.add(content(SMALL_LENGTH + i, i));
+			}
+			List<String> paths = new ArrayList<String>();
+			for (int i = 0; i < contents.size(); i++){
+				Path path = directory.resolve("file" + i + ".txt");
+				Files.write(path, contents.get(i));
+				files.add(path);
+				paths.add(path.toString());
+			}
+			HuffmanClient client = new HuffmanClient(socketPath);
+			try{
+				List<CompressionJob> jobs = new ArrayList<CompressionJob>();
+				for (String path : paths){
+					jobs.add(new CompressionJob(CompressionJob.COMPRESS, false, path, path + ".huf"));
+				}
+				CompressionJob missing = new CompressionJob(CompressionJob.COMPRESS, false,
+						directory.resolve("missing.txt").toString(), directory.resolve("missing.huf").toString());
+				jobs.add(missing);
+				submit(client, "compress", jobs, Collections.singleton(missing));
+				for (String path : paths){
+					files.add(Paths.get(path + ".huf"));
+				}
+
+				// a compressed file with one byte of its bitstream changed.
+				Path corrupt = directory.resolve("corrupt.huf");
+				byte[] compressed = Files.readAllBytes(Paths.get(paths.get(0) + ".huf"));
+				compressed[compressed.length / 2] ^= 0x10;
+				Files.write(corrupt, compressed);
+				files.add(corrupt);
+
+				jobs = new ArrayList<CompressionJob>();
+				Set<CompressionJob> failing = new HashSet<CompressionJob>();
+				for (String path : paths){
+					jobs.add(new CompressionJob(CompressionJob.DECOMPRESS, false, path + ".huf", path + ".out"));
+					jobs.add(new CompressionJob(CompressionJob.VERIFY, false, path + ".huf", null));
+				}
+				CompressionJob corruptDecompress = new CompressionJob(CompressionJob.DECOMPRESS, false,
+						corrupt.toString(), directory.resolve("corrupt.out").toString());
+				CompressionJob corruptVerify = new CompressionJob(CompressionJob.VERIFY, false, corrupt.toString(), null);
+				jobs.add(corruptDecompress);
+				jobs.add(corruptVerify);
+				failing.add(corruptDecompress);
+				failing.add(corruptVerify);
+				submit(client, "decompress and verify", jobs, failing);
+				files.add(directory.resolve("corrupt.out"));
+
+				int different = 0;
+				for (int i = 0; i < paths.size(); i++){
+					Path output = Paths.get(paths.get(i) + ".out");
+					files.add(output);
+					if (!Files.exists(output) || !Arrays.equals(contents.get(i), Files.readAllBytes(output))){
+						different ++;
+					}
+				}
+				check(different == 0, "round trip: " + different + " of " + paths.size() + " files differ");
+				client.stopDaemon();
+			}
+			finally{
+				client.close();
+			}
+			server.join(60 * 1000);
+			check(!server.isAlive(), "daemon stopped");
+			check(!Files.exists(Paths.get(socketPath)), "socket removed");
+		}
+		finally{
+			daemon.stop();
+			for (Path file : files){
+				Files.deleteIfExists(file);
+			}
+			Files.deleteIfExists(Paths.get(socketPath));
+			Files.deleteIfExists(directory);
+		}
+		if (failed){
+			System.exit(1);
+		}
+	}
+}
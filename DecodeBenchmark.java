@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Class DecodeBenchmark.java
+ * Times decoding huffman codes by walking the code tree bit by bit against building a DecodeTable and
+ * decoding a byte at a time, over a range of content lengths and alphabet sizes, to show where building the
+ * table starts to pay off and whether DecodeTable.worthBuilding picks the faster way.
+ * Run with "java DecodeBenchmark"; every line gives the nanoseconds per character of both ways (the table's
+ * including the time to build it), which one is faster, and which one worthBuilding picks.
+ * @author nahokitade
+ *
+ */
+public class DecodeBenchmark{
+	/** lengths of content to decode. */
+	private static final int[] LENGTHS = {1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20};
+	/** numbers of different characters in the content. */
+	private static final int[] ALPHABETS = {4, 16, 64, 256};
+	/** least time spent timing each way, in nanoseconds, so that short content is decoded many times. */
+	private static final long MIN_TIME = 200000000L;
+
+	/**
+	 * Makes content whose characters follow a zipf-like distribution, like text does, so that the codes
+	 * have many different lengths.
+	 * @param length number of bytes
+	 * @param alphabet number of different characters
+	 * @return the content
+	 */
+	private static ByteBuffer content(int length, int alphabet){
+		double[] cumulative = new double[alphabet];
+		double total = 0;
+		for (int i = 0; i < alphabet; i++){
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		Random random = new Random(length * 31 + alphabet);
+		ByteBuffer content = ByteBuffer.allocate(length);
+		for (int i = 0; i < length; i++){
+			int character = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+			content.put((byte) ((character < 0) ? Math.min(-character - 1, alphabet - 1) : character));
+		}
+		content.flip();
+		return content;
+	}
+
+	/**
+	 * A way of decoding to time.
+	 */
+	private interface Decoder{
+		void decode(ByteBuffer codes, ByteBuffer decoded) throws IOException;
+	}
+
+	/**
+	 * Times a way of decoding, after warming it up.
+	 * @param decoder the way of decoding
+	 * @param codes the codes to decode
+	 * @param length the number of characters they hold
+	 * @param minTime least time to spend, in nanoseconds
+	 * @return nanoseconds per character
+	 * @throws IOException
+	 */
+	private static double time(Decoder decoder, ByteBuffer codes, int length, long minTime) throws IOException{
+		ByteBuffer decoded = ByteBuffer.allocate(length);
+		long calls = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do{
+			decoded.clear();
+			decoder.decode(codes.duplicate(), decoded);
+			calls ++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < minTime);
+		return (double) elapsed / calls / length;
+	}
+
+	/**
+	 * main method that prints the timings of every length and alphabet size.
+	 * @param args not used
+	 */
+	public static void main(String [] args) throws IOException{
+		// the first sweep only warms up the JIT compiler, so that the first lines printed are not slowed down.
+		for (int sweep = 0; sweep < 2; sweep++){
+			if (sweep == 1){
+				System.out.println("alphabet  length   tree ns/char  table ns/char  faster  worthBuilding");
+			}
+			sweep(sweep == 1);
+		}
+	}
+
+	/**
+	 * Times both ways of decoding for every length and alphabet size.
+	 * @param print whether to print the timings
+	 * @throws IOException
+	 */
+	private static void sweep(boolean print) throws IOException{
+		for (int alphabet : ALPHABETS){
+			for (final int length : LENGTHS){
+				// encode the content the way HuffmanEncoding.java does, without a header.
+				ByteBuffer content = content(length, alphabet);
+				Histogram histogram = new Histogram();
+				histogram.add(content);
+				BlockPlan plan = BlockPlan.single(histogram, null);
+				ByteBuffer codes = ByteBuffer.allocate(HuffmanEncoding.maxCompressedLength(length));
+				BufferedBitWriter bitOutput = new BufferedBitWriter(codes);
+				BlockEncoder encoder = new BlockEncoder(plan, bitOutput);
+				encoder.encode(content.duplicate());
+				encoder.finish();
+				bitOutput.close();
+				codes.flip();
+				final BinaryTree<CharFrequency> codeTree = plan.codeTable(0).getCodeTree();
+				final BlockChecksums checksums = new BlockChecksums(BlockChecksums.DEFAULT_BLOCK_SIZE);
+				double treeTime = time(new Decoder(){
+					public void decode(ByteBuffer codes, ByteBuffer decoded) throws IOException{
+						HuffmanEncoding.decodeWithTree(codeTree, length, new BufferedBitReader(codes), decoded,
+								checksums, null);
+					}
+				}, codes, length, print ? MIN_TIME : MIN_TIME / 10);
+				// the table is built on every call, as decompressing does.
+				double tableTime = time(new Decoder(){
+					public void decode(ByteBuffer codes, ByteBuffer decoded) throws IOException{
+						HuffmanEncoding.decodeWithTable(new DecodeTable(codeTree), length, new BufferedBitReader(codes),
+								decoded, checksums, null);
+					}
+				}, codes, length, print ? MIN_TIME : MIN_TIME / 10);
+				if (!print){
+					continue;
+				}
+				boolean tableFaster = tableTime < treeTime;
+				boolean worthBuilding = DecodeTable.worthBuilding(codeTree, length);
+				System.out.println(String.format("%8d %7d %14.2f %14.2f  %-6s  %s%s", histogram.distinctCharacters(),
+						length, treeTime, tableTime, tableFaster ? "table" : "tree", worthBuilding ? "table" : "tree",
+						(worthBuilding == tableFaster) ? "" : "  (wrong way)"));
+			}
+		}
+	}
+}
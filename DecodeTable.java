@@ -0,0 +1,123 @@
+import java.util.*;
+
+/**
+ * Class DecodeTable.java
+ * Table for decoding huffman codes a whole byte at a time instead of walking the code tree bit by bit.
+ * Every inner node of the code tree is a state. For each state and each possible byte, the table holds
+ * the characters completed while following the byte's 8 bits from that node, and the node (state)
+ * reached at the end.
+ * @author nahokitade
+ *
+ */
+public class DecodeTable{
+	private int[] nextStates;   // state reached, indexed by state * 256 + byte
+	private byte[] counts;      // number of characters completed, indexed the same way
+	private long[] characters;  // up to 8 characters completed, lowest byte first, indexed the same way
+
+	/**
+	 * Builds the table for a code tree.
+	 * @param codeTree a code tree with at least two characters (so its root is an inner node).
+	 */
+	public DecodeTable(BinaryTree<CharFrequency> codeTree){
+		if (codeTree.isLeaf()){
+			throw new IllegalArgumentException("Code tree has a single character");
+		}
+		// number the inner nodes so that the root is state 0.
+		List<BinaryTree<CharFrequency>> states = new ArrayList<BinaryTree<CharFrequency>>();
+		Map<BinaryTree<CharFrequency>, Integer> stateNumbers = new IdentityHashMap<BinaryTree<CharFrequency>, Integer>();
+		numberStates(codeTree, states, stateNumbers);
+		nextStates = new int[states.size() * 256];
+		counts = new byte[states.size() * 256];
+		characters = new long[states.size() * 256];
+		// follow every byte from every state.
+		for (int state = 0; state < states.size(); state++){
+			for (int b = 0; b < 256; b++){
+				BinaryTree<CharFrequency> node = states.get(state);
+				int count = 0;
+				long completed = 0;
+				for (int bitMask = 128; bitMask != 0; bitMask >>= 1){
+					node = ((b & bitMask) == 0) ? node.getLeft() : node.getRight();
+					// a leaf completes a character, and the next one starts at the root again.
+					if (node.isLeaf()){
+						completed |= (long) (node.getValue().getChar() & 0xFF) << (8 * count);
+						count ++;
+						node = codeTree;
+					}
+				}
+				int entry = state * 256 + b;
+				nextStates[entry] = stateNumbers.get(node);
+				counts[entry] = (byte) count;
+				characters[entry] = completed;
+			}
+		}
+	}
+
+	/**
+	 * Numbers the inner nodes of a tree in preorder.
+	 * @param node the node to number along with its subtrees
+	 * @param states the inner nodes numbered so far, in order
+	 * @param stateNumbers the number of every inner node numbered so far
+	 */
+	private static void numberStates(BinaryTree<CharFrequency> node, List<BinaryTree<CharFrequency>> states,
+			Map<BinaryTree<CharFrequency>, Integer> stateNumbers){
+		if (node.isLeaf()){
+			return;
+		}
+		stateNumbers.put(node, states.size());
+		states.add(node);
+		numberStates(node.getLeft(), states, stateNumbers);
+		numberStates(node.getRight(), states, stateNumbers);
+	}
+
+	/**
+	 * Returns whether building a table pays off for decoding a number of characters. Building costs
+	 * 256 steps of 8 bits for every inner node, while the table then saves most of the per-bit work.
+	 * DecodeBenchmark, which counts the time to build the table, puts the crossover at about 1000
+	 * characters of content per inner node for alphabets of 4 to 256 characters, so the table is
+	 * used from 1024 characters per inner node. Once built, a table is kept with its CodeTable and
+	 * reused by later calls through the TableCache.
+	 * @param codeTree the code tree of the content
+	 * @param length number of characters to decode
+	 * @return true if the table should be used
+	 */
+	public static boolean worthBuilding(BinaryTree<CharFrequency> codeTree, long length){
+		if (codeTree == null || codeTree.isLeaf()){
+			return false;
+		}
+		int innerNodes = codeTree.countLeaves() - 1;
+		return length >= 1024L * innerNodes;
+	}
+
+	/**
+	 * @param state the current state (0 at the start of a character)
+	 * @param b the next byte of codes, from 0 to 255
+	 * @return the index of the entry for the state and the byte
+	 */
+	public int entry(int state, int b){
+		return state * 256 + b;
+	}
+
+	/**
+	 * @param entry an index returned by entry()
+	 * @return the state to continue with after the entry's byte
+	 */
+	public int nextState(int entry){
+		return nextStates[entry];
+	}
+
+	/**
+	 * @param entry an index returned by entry()
+	 * @return the number of characters completed by the entry's byte, from 0 to 8
+	 */
+	public int count(int entry){
+		return counts[entry];
+	}
+
+	/**
+	 * @param entry an index returned by entry()
+	 * @return the characters completed by the entry's byte, the first one in the lowest byte
+	 */
+	public long characters(int entry){
+		return characters[entry];
+	}
+}
@@ -0,0 +1,176 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Class Histogram.java
+ * Counts how often every byte value occurs in some content, along with the runs of repeated
+ * bytes, so that HuffmanEncoding.java can tell from one pass over the content whether huffman
+ * codes or run lengths will make it smaller.
+ * @author nahokitade
+ *
+ */
+public class Histogram{
+	/** largest total of the frequencies of a frequency table, so that summing them in the code tree never
+	 * overflows an int. */
+	public static final int MAX_TABLE_TOTAL = Integer.MAX_VALUE;
+
+	private long[] counts = new long[256]; // occurrences of every byte value
+	private long length;                   // number of bytes counted
+	private int runCharacter = -1;         // byte value of the run in progress, -1 before the first byte
+	private long runLength;                // length of the run in progress
+	private long runBytes;                 // bytes taken by the run lengths of all finished runs
+
+	/**
+	 * Counts every byte between the position and the limit of a buffer, without moving its position.
+	 * Buffers passed to successive calls are treated as one piece of content.
+	 * @param chunk the bytes to count
+	 */
+	public void add(ByteBuffer chunk){
+		for (int i = chunk.position(); i < chunk.limit(); i++){
+			int character = chunk.get(i) & 0xFF;
+			counts[character] ++;
+			// a different byte ends the run in progress.
+			if (character != runCharacter){
+				endRun();
+				runCharacter = character;
+			}
+			runLength ++;
+		}
+		length += chunk.remaining();
+	}
+
+	/**
+	 * Adds the size of the run in progress, if any, to runBytes.
+	 */
+	private void endRun(){
+		if (runLength > 0){
+			runBytes += RunLengthEncoder.runSize(runLength);
+			runLength = 0;
+		}
+	}
+
+	/**
+	 * @return the number of bytes counted
+	 */
+	public long getLength(){
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes RunLengthEncoder takes for the content counted
+	 */
+	public long runLengthBytes(){
+		return runBytes + ((runLength > 0) ? RunLengthEncoder.runSize(runLength) : 0);
+	}
+
+	/**
+	 * Returns the number of bits the codes of the content counted take.
+	 * @param codes the code of every character, indexed by byte value
+	 * @return the size of the codes in bits, or Long.MAX_VALUE if a character counted has no code
+	 */
+	public long huffmanBits(String[] codes){
+		long bits = 0;
+		for (int i = 0; i < counts.length; i++){
+			if (counts[i] > 0){
+				if (codes[i] == null){
+					return Long.MAX_VALUE;
+				}
+				bits += counts[i] * codes[i].length();
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the number of bytes the codes of the content counted take.
+	 * @param codes the code of every character, indexed by byte value
+	 * @return the size of the codes in bytes, rounded up
+	 */
+	public long huffmanBytes(String[] codes){
+		return (huffmanBits(codes) + 7) / 8;
+	}
+
+	/**
+	 * Estimates the bits the best codes for the content counted would take, from its entropy.
+	 * @return the entropy of the content times its length, in bits
+	 */
+	public double entropyBits(){
+		return entropyBits(this, null);
+	}
+
+	/**
+	 * Estimates the bits the best codes for two pieces of content together would take, from their entropy.
+	 * @param first histogram of the first piece
+	 * @param second histogram of the second piece, or null for none
+	 * @return the entropy of the content of both times its length, in bits
+	 */
+	public static double entropyBits(Histogram first, Histogram second){
+		long length = first.length + ((second != null) ? second.length : 0);
+		double bits = 0;
+		for (int i = 0; i < 256; i++){
+			long count = first.counts[i] + ((second != null) ? second.counts[i] : 0);
+			if (count > 0){
+				bits += count * (Math.log((double) length / count) / Math.log(2));
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * @return the number of different byte values counted
+	 */
+	public int distinctCharacters(){
+		int distinct = 0;
+		for (int i = 0; i < counts.length; i++){
+			if (counts[i] > 0){
+				distinct ++;
+			}
+		}
+		return distinct;
+	}
+
+	/**
+	 * Adds the counts of another histogram, as if its content followed this one's. Runs are not
+	 * tracked across the two, so runLengthBytes() is no longer meaningful afterwards.
+	 * @param other the histogram to add
+	 */
+	public void merge(Histogram other){
+		for (int i = 0; i < counts.length; i++){
+			counts[i] += other.counts[i];
+		}
+		length += other.length;
+	}
+
+	/**
+	 * @return a histogram with the same counts, which can be merged into without changing this one
+	 */
+	public Histogram copy(){
+		Histogram copy = new Histogram();
+		copy.merge(this);
+		return copy;
+	}
+
+	/**
+	 * Turns the counts of every byte value into a frequency table. Content longer than MAX_TABLE_TOTAL has
+	 * its counts scaled down to fit, every character keeping a frequency of at least 1, which changes the
+	 * codes very little.
+	 * @return frequency table: the frequency of every character, indexed by byte value, 0 for the characters
+	 * that do not appear.
+	 */
+	public int[] toFreqTable(){
+		// divide by the smallest divisor that brings the total down far enough, leaving room for the
+		// characters rounded up to 1.
+		long divisor = 1;
+		if (length > MAX_TABLE_TOTAL){
+			divisor = (length + MAX_TABLE_TOTAL - 256 - 1) / (MAX_TABLE_TOTAL - 256);
+		}
+		// only the characters that actually appear in the file get a frequency.
+		int[] freqTable = new int[256];
+		for (int i = 0; i < counts.length; i++){
+			if (counts[i] > 0){
+				freqTable[i] = (int) Math.max(counts[i] / divisor, 1);
+			}
+		}
+		return freqTable;
+	}
+}
@@ -0,0 +1,450 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Class HuffmanArchive.java
+ * Program to store many files in one archive, each compressed as by HuffmanEncoding.compress.
+ * The archive starts with a magic number, followed by the compressed content of every file, then a
+ * central directory with the name, offset, sizes and checksum of every file, then a fixed-size footer
+ * pointing at the directory. Listing an archive, or extracting some of its files, only reads the footer,
+ * the directory and the content of those files. Files are compressed and extracted in parallel.
+ * @author nahokitade
+ */
+public class HuffmanArchive{
+	/** first four bytes of every archive ("HUFA"). */
+	private static final int MAGIC = 0x48554641;
+	/** last four bytes of every archive ("HUFD"). */
+	private static final int FOOTER_MAGIC = 0x48554644;
+	/** bytes of the footer: directory offset, directory length, number of files and magic number. */
+	private static final int FOOTER_SIZE = 20;
+	/** most bytes of compressed buffers held at once while creating an archive; one file is always let through. */
+	public static final long MAX_IN_FLIGHT_BYTES = 256L << 20;
+
+	/**
+	 * Creates an archive holding the given files under their names (without their directories).
+	 * @param archivePath path of the archive to create
+	 * @param inputPaths paths of the files to store, whose names must all differ
+	 * @param adaptive whether to switch code tables where the statistics of a file change
+	 * @param threads number of files to compress at once
+	 * @return the directory of the archive created
+	 * @throws IOException
+	 */
+	public static List<ArchiveEntry> create(String archivePath, List<String> inputPaths, final boolean adaptive,
+			int threads) throws IOException{
+		// check the names before doing any work.
+		Set<String> names = new HashSet<String>();
+		for (String inputPath : inputPaths){
+			if (!names.add(new File(inputPath).getName())){
+				throw new IOException("Two files are named " + new File(inputPath).getName());
+			}
+		}
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		FileChannel output = new FileOutputStream(archivePath).getChannel();
+		boolean created = false;
+		try{
+			ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC);
+			magic.flip();
+			writeFully(output, magic);
+			// compress a window of files ahead, and write them out in order as they finish. The window is
+			// bounded by the bytes of the buffers it holds as well as by the number of files, so that a few
+			// large files cannot use up the memory for direct buffers.
+			List<Future<ByteBuffer>> compressed = new ArrayList<Future<ByteBuffer>>();
+			List<Integer> bufferSizes = new ArrayList<Integer>();
+			long inFlight = 0;
+			List<ArchiveEntry> directory = new ArrayList<ArchiveEntry>();
+			int window = 2 * threads;
+			for (int i = 0; i < inputPaths.size(); i++){
+				while (compressed.size() < inputPaths.size() && compressed.size() < i + window){
+					final String inputPath = inputPaths.get(compressed.size());
+					final long size = new File(inputPath).length();
+					final int bufferSize = bufferSize(inputPath, size);
+					if (compressed.size() > i && inFlight + bufferSize > MAX_IN_FLIGHT_BYTES){
+						break;
+					}
+					compressed.add(workers.submit(new Callable<ByteBuffer>(){
+						public ByteBuffer call() throws IOException{
+							return compressFile(inputPath, size, bufferSize, adaptive);
+						}
+					}));
+					bufferSizes.add(bufferSize);
+					inFlight += bufferSize;
+				}
+				ByteBuffer content = await(compressed.get(i));
+				compressed.set(i, null);  // let the buffer go once it is written
+				inFlight -= bufferSizes.get(i);
+				// compressFile leaves the original size and checksum after the compressed content.
+				long offset = output.position();
+				int checksum = content.getInt(content.limit() - 4);
+				long originalSize = content.getLong(content.limit() - 12);
+				content.limit(content.limit() - 12);
+				long compressedSize = content.remaining();
+				writeFully(output, content);
+				directory.add(new ArchiveEntry(new File(inputPaths.get(i)).getName(), offset, compressedSize,
+						originalSize, checksum));
+			}
+			writeDirectory(output, directory);
+			// the last bytes only count once they are closed without an error.
+			output.close();
+			created = true;
+			return directory;
+		}
+		finally{
+			workers.shutdownNow();
+			output.close();
+			// never leave a half-written archive behind.
+			if (!created){
+				new File(archivePath).delete();
+			}
+		}
+	}
+
+	/**
+	 * Works out the size of the buffer a file is compressed into.
+	 * @param inputPath path of the file
+	 * @param size size of the file
+	 * @return room for the largest compressed content of a file of that size, followed by its size and checksum
+	 * @throws IOException if the file is too large to compress into one buffer
+	 */
+	private static int bufferSize(String inputPath, long size) throws IOException{
+		if (size <= Integer.MAX_VALUE){
+			long bufferSize;
+			try{
+				bufferSize = HuffmanEncoding.maxCompressedLength((int) size) + 12L;
+			}
+			catch (IllegalArgumentException e){
+				bufferSize = Long.MAX_VALUE;
+			}
+			if (bufferSize <= Integer.MAX_VALUE){
+				return (int) bufferSize;
+			}
+		}
+		throw new IOException(inputPath + " is too large to store in an archive");
+	}
+
+	/**
+	 * Compresses a file into memory. The original size and checksum are appended after the compressed
+	 * content, for create to put in the directory.
+	 * @param inputPath path of the file to compress
+	 * @param size size of the file when its buffer was sized
+	 * @param bufferSize size of the buffer to compress into, from bufferSize
+	 * @param adaptive whether to switch code tables where the statistics of the file change
+	 * @return the compressed content followed by the original size and checksum, flipped for reading
+	 * @throws IOException
+	 */
+	private static ByteBuffer compressFile(String inputPath, long size, int bufferSize, boolean adaptive)
+			throws IOException{
+		FileChannel input = new FileInputStream(inputPath).getChannel();
+		try{
+			if (input.size() != size){
+				throw new IOException(inputPath + " changed size while it was being archived");
+			}
+			// map the file so it is compressed straight from the page cache.
+			MappedByteBuffer src = input.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			CRC32C crc = new CRC32C();
+			crc.update(src.duplicate());
+			ByteBuffer dst = ByteBuffer.allocateDirect(bufferSize);
+			HuffmanEncoding.compress(src, dst, adaptive);
+			dst.putLong(size);
+			dst.putInt((int) crc.getValue());
+			dst.flip();
+			return dst;
+		}
+		finally{
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes the central directory and the footer at the current position of the archive.
+	 * @param output channel of the archive
+	 * @param directory entries of every file in the archive
+	 * @throws IOException
+	 */
+	private static void writeDirectory(FileChannel output, List<ArchiveEntry> directory) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		for (ArchiveEntry entry : directory){
+			byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+			data.writeShort(name.length);
+			data.write(name);
+			data.writeLong(entry.getOffset());
+			data.writeLong(entry.getCompressedSize());
+			data.writeLong(entry.getOriginalSize());
+			data.writeInt(entry.getChecksum());
+		}
+		data.flush();
+		long directoryOffset = output.position();
+		writeFully(output, ByteBuffer.wrap(bytes.toByteArray()));
+		ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+		footer.putLong(directoryOffset).putInt(bytes.size()).putInt(directory.size()).putInt(FOOTER_MAGIC);
+		footer.flip();
+		writeFully(output, footer);
+	}
+
+	/**
+	 * Reads the central directory of an archive, seeking straight to it from the footer.
+	 * @param archivePath path of the archive
+	 * @return the entries of every file in the archive, in the order they were stored
+	 * @throws IOException if the file is not an archive
+	 */
+	public static List<ArchiveEntry> list(String archivePath) throws IOException{
+		FileChannel input = new FileInputStream(archivePath).getChannel();
+		try{
+			return readDirectory(input);
+		}
+		finally{
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads the central directory of an archive.
+	 * @param input channel of the archive
+	 * @return the entries of every file in the archive
+	 * @throws IOException if the file is not an archive
+	 */
+	private static List<ArchiveEntry> readDirectory(FileChannel input) throws IOException{
+		long size = input.size();
+		if (size < 4 + FOOTER_SIZE){
+			throw new IOException("Not an archive");
+		}
+		ByteBuffer footer = readFully(input, size - FOOTER_SIZE, FOOTER_SIZE);
+		long directoryOffset = footer.getLong();
+		int directoryLength = footer.getInt();
+		int count = footer.getInt();
+		if (footer.getInt() != FOOTER_MAGIC || readFully(input, 0, 4).getInt() != MAGIC || directoryOffset < 4
+				|| directoryLength < 0 || count < 0 || directoryOffset + directoryLength != size - FOOTER_SIZE){
+			throw new IOException("Not an archive");
+		}
+		ByteBuffer data = readFully(input, directoryOffset, directoryLength);
+		List<ArchiveEntry> directory = new ArrayList<ArchiveEntry>();
+		try{
+			for (int i = 0; i < count; i++){
+				byte[] name = new byte[data.getShort() & 0xFFFF];
+				data.get(name);
+				ArchiveEntry entry = new ArchiveEntry(new String(name, StandardCharsets.UTF_8), data.getLong(),
+						data.getLong(), data.getLong(), data.getInt());
+				// every file's content must lie between the magic number and the directory.
+				if (entry.getOffset() < 4 || entry.getCompressedSize() < 0 || entry.getOriginalSize() < 0
+						|| entry.getOffset() + entry.getCompressedSize() > directoryOffset){
+					throw new IOException("Invalid directory entry for " + entry.getName());
+				}
+				directory.add(entry);
+			}
+		}
+		catch (java.nio.BufferUnderflowException e){
+			throw new IOException("Truncated directory");
+		}
+		return directory;
+	}
+
+	/**
+	 * Extracts files from an archive into a directory, several at once. Each file's content is verified
+	 * against its checksums while it is decompressed.
+	 * @param archivePath path of the archive
+	 * @param outputDirectory directory to write the files to
+	 * @param names names of the files to extract, or null for all of them
+	 * @param threads number of files to extract at once
+	 * @throws IOException if a file cannot be extracted, or a name is not in the archive. Files that were
+	 * not extracted completely are deleted, and no worker is still writing when this returns.
+	 */
+	public static void extract(String archivePath, final String outputDirectory, Collection<String> names,
+			int threads) throws IOException{
+		final FileChannel input = new FileInputStream(archivePath).getChannel();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try{
+			// pick out the entries asked for.
+			List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+			Set<String> missing = (names != null) ? new HashSet<String>(names) : new HashSet<String>();
+			for (ArchiveEntry entry : readDirectory(input)){
+				if (names == null || missing.remove(entry.getName())){
+					entries.add(entry);
+				}
+			}
+			if (!missing.isEmpty()){
+				throw new FileNotFoundException("Not in the archive: " + missing);
+			}
+			List<Future<Void>> extracted = new ArrayList<Future<Void>>();
+			for (final ArchiveEntry entry : entries){
+				extracted.add(workers.submit(new Callable<Void>(){
+					public Void call() throws IOException{
+						extractEntry(input, entry, outputDirectory);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : extracted){
+				await(future);
+			}
+		}
+		finally{
+			// stop the files not started yet, and let the ones being extracted finish or clean up after
+			// themselves before the archive is closed under them.
+			workers.shutdownNow();
+			try{
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			input.close();
+		}
+	}
+
+	/**
+	 * Decompresses one file of an archive straight from the mapped archive into the mapped output file, and
+	 * checks it against the checksum in the directory, so that an entry pointing at the wrong compressed file
+	 * is caught too. If it fails the output file is deleted, so that no partly decoded content is left behind.
+	 * @param input channel of the archive, shared by all the extracting threads
+	 * @param entry the directory entry of the file
+	 * @param outputDirectory directory to write the file to
+	 * @throws IOException
+	 */
+	private static void extractEntry(FileChannel input, ArchiveEntry entry, String outputDirectory) throws IOException{
+		String name = entry.getName();
+		// never let a name from the archive point outside the output directory.
+		if (name.isEmpty() || name.contains("/") || name.contains(File.separator) || name.equals(".")
+				|| name.equals("..")){
+			throw new IOException("Invalid file name in archive: " + name);
+		}
+		if (entry.getOriginalSize() > Integer.MAX_VALUE){
+			throw new IOException(name + " is too large to extract");
+		}
+		ByteBuffer src = input.map(FileChannel.MapMode.READ_ONLY, entry.getOffset(), entry.getCompressedSize());
+		File outputPath = new File(outputDirectory, name);
+		RandomAccessFile outputFile = new RandomAccessFile(outputPath, "rw");
+		boolean extracted = false;
+		try{
+			FileChannel output = outputFile.getChannel();
+			output.truncate(0);
+			ByteBuffer dst = output.map(FileChannel.MapMode.READ_WRITE, 0, entry.getOriginalSize());
+			int length = HuffmanEncoding.decompress(src, dst);
+			if (length != entry.getOriginalSize()){
+				throw new IOException(name + " decompressed to " + length + " bytes but expected "
+						+ entry.getOriginalSize());
+			}
+			dst.flip();
+			CRC32C crc = new CRC32C();
+			crc.update(dst);
+			if ((int) crc.getValue() != entry.getChecksum()){
+				throw new IOException("Checksum mismatch for " + name);
+			}
+			extracted = true;
+		}
+		finally{
+			outputFile.close();
+			if (!extracted){
+				outputPath.delete();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a task and returns its result, passing on an IOException it threw.
+	 * @param future the task
+	 * @return the result of the task
+	 * @throws IOException
+	 */
+	private static <T> T await(Future<T> future) throws IOException{
+		try{
+			return future.get();
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a worker");
+		}
+		catch (ExecutionException e){
+			if (e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Writes all of a buffer at the channel's position.
+	 * @param output the channel
+	 * @param buffer the bytes to write
+	 * @throws IOException
+	 */
+	private static void writeFully(FileChannel output, ByteBuffer buffer) throws IOException{
+		while (buffer.hasRemaining()){
+			output.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads some bytes at a given position, without moving the channel's position.
+	 * @param input the channel
+	 * @param position where to read from
+	 * @param length the number of bytes to read
+	 * @return the bytes read, flipped for reading
+	 * @throws IOException if the channel ends first
+	 */
+	private static ByteBuffer readFully(FileChannel input, long position, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()){
+			if (input.read(buffer, position + buffer.position()) == -1){
+				throw new EOFException("Archive ended early");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * main method to create, list and extract archives.
+	 * @param args "create archive file...", "list archive" or "extract archive directory [file...]",
+	 * optionally preceded by "-adaptive" when creating.
+	 */
+	public static void main(String [] args){
+		List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+		boolean adaptive = arguments.remove("-adaptive");
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean failed = false;
+		try{
+			if (arguments.size() >= 2 && arguments.get(0).equals("create")){
+				create(arguments.get(1), arguments.subList(2, arguments.size()), adaptive, threads);
+			}
+			else if (arguments.size() == 2 && arguments.get(0).equals("list")){
+				for (ArchiveEntry entry : list(arguments.get(1))){
+					System.out.println(entry.getName() + "\t" + entry.getOriginalSize() + "\t"
+							+ entry.getCompressedSize());
+				}
+			}
+			else if (arguments.size() >= 3 && arguments.get(0).equals("extract")){
+				List<String> names = arguments.subList(3, arguments.size());
+				extract(arguments.get(1), arguments.get(2), names.isEmpty() ? null : names, threads);
+			}
+			else{
+				System.err.println("Usage: HuffmanArchive [-adaptive] create archive file...");
+				System.err.println("       HuffmanArchive list archive");
+				System.err.println("       HuffmanArchive extract archive directory [file...]");
+				failed = true;
+			}
+		}
+		catch (FileNotFoundException e) {
+			System.err.println(e.getMessage());
+			failed = true;
+		}
+		catch (IOException e) {
+			//there's something wrong with the archive or one of the files.
+			System.err.println("There was an error with the archive.");
+			e.printStackTrace();
+			failed = true;
+		}
+		// let scripts tell whether it worked, as HuffmanClient does.
+		if (failed){
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Class HuffmanClient.java
+ * Thin client of HuffmanDaemon.java. It sends the files to compress, decompress or verify over the daemon's
+ * Unix domain socket and waits for the answers, so it only loads a handful of classes and does none of the
+ * work itself. One client can send any number of requests before it is closed.
+ * @author nahokitade
+ */
+public class HuffmanClient implements Closeable{
+	private SocketChannel channel;
+	private DataInputStream input;
+	private DataOutputStream output;
+
+	/**
+	 * Constructor of HuffmanClient object, which connects to a daemon.
+	 * @param socketPath path of the daemon's socket
+	 * @throws IOException if no daemon is listening on the socket
+	 */
+	public HuffmanClient(String socketPath) throws IOException{
+		channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try{
+			channel.connect(UnixDomainSocketAddress.of(socketPath));
+		}
+		catch (IOException e){
+			channel.close();
+			throw e;
+		}
+		input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+	}
+
+	/**
+	 * Sends jobs to the daemon as one request and waits until all of them are done.
+	 * @param jobs the jobs, whose paths must be absolute since the daemon runs in another directory
+	 * @return for every job in order, null if it succeeded or otherwise what went wrong
+	 * @throws IOException if the daemon cannot be reached
+	 */
+	public List<String> submit(List<CompressionJob> jobs) throws IOException{
+		if (jobs.size() > HuffmanDaemon.MAX_JOBS){
+			// split requests that are too large for the daemon.
+			List<String> errors = new ArrayList<String>();
+			for (int start = 0; start < jobs.size(); start += HuffmanDaemon.MAX_JOBS){
+				errors.addAll(submit(jobs.subList(start, Math.min(start + HuffmanDaemon.MAX_JOBS, jobs.size()))));
+			}
+			return errors;
+		}
+		output.writeInt(jobs.size());
+		for (CompressionJob job : jobs){
+			job.write(output);
+		}
+		output.flush();
+		List<String> errors = new ArrayList<String>();
+		for (int i = 0; i < jobs.size(); i++){
+			boolean succeeded = input.readBoolean();
+			String error = input.readUTF();
+			errors.add(succeeded ? null : error);
+		}
+		return errors;
+	}
+
+	/**
+	 * Asks the daemon to stop once the jobs it is running are done.
+	 * @throws IOException if the daemon cannot be reached
+	 */
+	public void stopDaemon() throws IOException{
+		output.writeInt(HuffmanDaemon.STOP);
+		output.flush();
+		input.readBoolean();
+	}
+
+	/**
+	 * Disconnects from the daemon.
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		channel.close();
+	}
+
+	/**
+	 * main method that sends files to a daemon, naming the output files the way HuffmanEncoding.java does.
+	 * @param args the path of the daemon's socket, then "compress", "decompress", "verify" or "stop", optionally
+	 * "-adaptive" to switch code tables where the statistics of a file change, and the paths of the files.
+	 */
+	public static void main(String [] args){
+		List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+		boolean adaptive = arguments.remove("-adaptive");
+		if (arguments.size() < 2){
+			System.err.println("Usage: HuffmanClient socket compress|decompress|verify [-adaptive] file...");
+			System.err.println("       HuffmanClient socket stop");
+			return;
+		}
+		String socketPath = arguments.get(0);
+		String command = arguments.get(1);
+		List<CompressionJob> jobs = new ArrayList<CompressionJob>();
+		for (String path : arguments.subList(2, arguments.size())){
+			// the daemon has its own working directory, so send it absolute paths.
+			String inputPath = Paths.get(path).toAbsolutePath().toString();
+			if (command.equals("compress")){
+				jobs.add(new CompressionJob(CompressionJob.COMPRESS, adaptive, inputPath,
+						HuffmanEncoding.compressedPathFor(inputPath)));
+			}
+			else if (command.equals("decompress")){
+				jobs.add(new CompressionJob(CompressionJob.DECOMPRESS, false, inputPath,
+						HuffmanEncoding.decompressedPathFor(inputPath)));
+			}
+			else if (command.equals("verify")){
+				jobs.add(new CompressionJob(CompressionJob.VERIFY, false, inputPath, null));
+			}
+		}
+		boolean failed = false;
+		try{
+			HuffmanClient client = new HuffmanClient(socketPath);
+			try{
+				if (command.equals("stop")){
+					client.stopDaemon();
+				}
+				else if (jobs.isEmpty()){
+					System.err.println("Unknown command or no files: " + command);
+					failed = true;
+				}
+				else{
+					List<String> errors = client.submit(jobs);
+					for (int i = 0; i < jobs.size(); i++){
+						if (errors.get(i) != null){
+							System.err.println(jobs.get(i).getInputPath() + ": " + errors.get(i));
+							failed = true;
+						}
+					}
+				}
+			}
+			finally{
+				client.close();
+			}
+		}
+		catch (IOException e) {
+			//there's no daemon listening, or it went away.
+			System.err.println("Could not reach the daemon on " + socketPath + ": " + e.getMessage());
+			failed = true;
+		}
+		// let scripts tell whether every file was done.
+		if (failed){
+			System.exit(1);
+		}
+	}
+}
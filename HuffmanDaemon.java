@@ -0,0 +1,498 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class HuffmanDaemon.java
+ * Long-running process that compresses, decompresses and verifies files for HuffmanClient.java, so that
+ * scripts working on many files pay for starting and warming up a JVM once instead of once per file.
+ * Clients connect to a Unix domain socket, which only the user running the daemon can use, and send
+ * requests of one or more CompressionJobs. Every job is answered, in order, with whether it succeeded and
+ * an error message if not.
+ * Jobs run on a fixed number of worker threads behind a bounded queue, so a flood of requests waits for
+ * room instead of piling up. Small files are batched into a single task, together with small files from
+ * other requests that arrive within a couple of milliseconds, and the code tables built for every file are
+ * kept in the daemon's own TableCache for the next file with the same code lengths, such as the same file
+ * being decompressed or verified after it was compressed.
+ * @author nahokitade
+ */
+public class HuffmanDaemon{
+	/** request header that asks the daemon to stop instead of giving a number of jobs. */
+	public static final int STOP = -1;
+	/** most jobs a single request can hold. */
+	public static final int MAX_JOBS = 10000;
+	/** files smaller than this are batched with other small files. */
+	private static final int SMALL_FILE = 256 * 1024;
+	/** a batch is run once its files add up to this many bytes... */
+	private static final int BATCH_BYTES = 4 * 1024 * 1024;
+	/** ...or once it holds this many files... */
+	private static final int BATCH_JOBS = 64;
+	/** ...or this long after its first file arrived. */
+	private static final long BATCH_DELAY_MILLIS = 2;
+	/** number of tasks that can wait for a worker before new ones wait for room. */
+	private static final int QUEUE_CAPACITY = 64;
+	/** number of clients served at once. */
+	private static final int MAX_CONNECTIONS = 32;
+
+	private Path socketPath;
+	private ServerSocketChannel server;
+	private TableCache tableCache;
+	private ThreadPoolExecutor workers;
+	private ExecutorService connections;
+	private ScheduledExecutorService batchTimer;
+	private List<Runnable> batch = new ArrayList<Runnable>();  // small jobs waiting to run together
+	private long batchBytes;                                    // bytes of the files in the batch
+	private ScheduledFuture<?> batchDeadline;                   // when the batch runs if it does not fill up
+	private volatile boolean stopped;
+
+	/**
+	 * Constructor of HuffmanDaemon object, which binds the socket and warms up the coders but does not
+	 * accept clients until serve() is called.
+	 * @param socketPath path of the Unix domain socket to listen on
+	 * @param threads number of worker threads
+	 * @param cacheCapacity number of code tables to keep
+	 * @throws IOException if the socket cannot be bound, or another daemon is already listening on it
+	 */
+	public HuffmanDaemon(String socketPath, int threads, int cacheCapacity) throws IOException{
+		this.socketPath = Paths.get(socketPath).toAbsolutePath();
+		bind();
+		// compile the encoding and decoding loops before the first client waits on them.
+		warmUp();
+		tableCache = new TableCache(cacheCapacity);
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new RejectedExecutionHandler(){
+			public void rejectedExecution(Runnable task, ThreadPoolExecutor executor){
+				// wait for room in the queue instead of failing the task.
+				if (executor.isShutdown()){
+					throw new RejectedExecutionException("The daemon is stopping");
+				}
+				try{
+					executor.getQueue().put(task);
+				}
+				catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException("Interrupted while waiting for a worker");
+				}
+			}
+		});
+		connections = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+		batchTimer = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	/**
+	 * Compresses and decompresses some made up text a few times, so that the JIT compiler has compiled the
+	 * hot loops by the time the first client arrives.
+	 */
+	private static void warmUp(){
+		byte[] content = new byte[1 << 20];
+		Random random = new Random(0);
+		for (int i = 0; i < content.length; i++){
+			// mostly lowercase letters, with some spaces and newlines.
+			int r = random.nextInt(32);
+			content[i] = (byte) ((r < 26) ? 'a' + r : (r < 31) ? ' ' : '\n');
+		}
+		byte[] compressed = new byte[HuffmanEncoding.maxCompressedLength(content.length)];
+		try{
+			for (int i = 0; i < 5; i++){
+				int length = HuffmanEncoding.compress(content, 0, content.length, compressed, 0);
+				HuffmanEncoding.decompress(compressed, 0, length, content, 0);
+			}
+		}
+		catch (IOException e){
+			// cannot happen for content just compressed, and warming up is only an optimization anyway.
+		}
+	}
+
+	/**
+	 * Binds the socket, replacing the socket file left behind by a daemon that did not stop cleanly.
+	 * @throws IOException if another daemon is listening on the socket, or something other than a socket is
+	 * in the way
+	 */
+	private void bind() throws IOException{
+		UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+		if (Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)){
+			// never remove anything but a socket left behind, such as a file given as the socket path by mistake.
+			if (Files.isRegularFile(socketPath, LinkOption.NOFOLLOW_LINKS)
+					|| Files.isDirectory(socketPath, LinkOption.NOFOLLOW_LINKS)
+					|| Files.isSymbolicLink(socketPath)){
+				throw new IOException(socketPath + " exists and is not a socket");
+			}
+			// only remove the socket if nobody answers on it.
+			boolean answered;
+			try{
+				SocketChannel.open(address).close();
+				answered = true;
+			}
+			catch (IOException e){
+				answered = false;
+			}
+			if (answered){
+				throw new IOException("A daemon is already listening on " + socketPath);
+			}
+			Files.delete(socketPath);
+		}
+		// any client can make the daemon read and write files as its user, so only that user may connect. The
+		// socket is bound inside a directory only that user can enter, made owner-only there, and only then
+		// moved into place, so there is no moment at which anyone else could connect to it.
+		Path privateDirectory = Files.createTempDirectory(socketPath.getParent(), ".huffman",
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		Path privateSocket = privateDirectory.resolve("socket");
+		try{
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			server.bind(UnixDomainSocketAddress.of(privateSocket));
+			Files.setPosixFilePermissions(privateSocket, PosixFilePermissions.fromString("rw-------"));
+			Files.move(privateSocket, socketPath, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e){
+			if (server != null){
+				server.close();
+			}
+			Files.deleteIfExists(privateSocket);
+			throw e;
+		}
+		finally{
+			Files.delete(privateDirectory);
+		}
+	}
+
+	/**
+	 * Accepts clients until the daemon is stopped, serving each on a connection thread of its own, then waits
+	 * for the jobs still running and disconnects the remaining clients.
+	 * @throws IOException if accepting fails for another reason than the daemon stopping
+	 */
+	public void serve() throws IOException{
+		try{
+			acceptClients();
+		}
+		finally{
+			stop();
+			try{
+				workers.awaitTermination(1, TimeUnit.MINUTES);
+				// give the clients a moment to read their answers before closing their channels.
+				if (!connections.awaitTermination(1, TimeUnit.SECONDS)){
+					connections.shutdownNow();
+				}
+			}
+			catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Accepts clients until the daemon is stopped.
+	 * @throws IOException if accepting fails for another reason than the daemon stopping
+	 */
+	private void acceptClients() throws IOException{
+		while (!stopped){
+			final SocketChannel client;
+			try{
+				client = server.accept();
+			}
+			catch (IOException e){
+				// closing the socket is how stop() ends this loop.
+				if (stopped){
+					return;
+				}
+				throw e;
+			}
+			try{
+				connections.execute(new Runnable(){
+					public void run(){
+						serveClient(client);
+					}
+				});
+			}
+			catch (RejectedExecutionException e){
+				client.close();
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of a client until it disconnects.
+	 * @param client the client's channel
+	 */
+	private void serveClient(SocketChannel client){
+		try{
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+			while (true){
+				int count;
+				try{
+					count = input.readInt();
+				}
+				catch (EOFException e){
+					return;  // the client is done
+				}
+				if (count == STOP){
+					output.writeBoolean(true);
+					output.flush();
+					stop();
+					return;
+				}
+				if (count < 0 || count > MAX_JOBS){
+					throw new IOException("Invalid number of jobs: " + count);
+				}
+				// start every job of the request before waiting for any of them.
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				for (int i = 0; i < count; i++){
+					results.add(submit(CompressionJob.read(input)));
+				}
+				for (Future<Void> result : results){
+					String error = await(result);
+					output.writeBoolean(error == null);
+					output.writeUTF((error != null) ? error : "");
+				}
+				output.flush();
+			}
+		}
+		catch (IOException e){
+			// the client went away or sent garbage; either way there is nobody left to answer.
+			if (!stopped){
+				System.err.println("Dropped a client: " + e);
+			}
+		}
+		finally{
+			try{
+				client.close();
+			}
+			catch (IOException e){
+				// nothing more to do with it.
+			}
+		}
+	}
+
+	/**
+	 * Waits for a job to finish.
+	 * @param result the job's result
+	 * @return null if the job succeeded, otherwise what went wrong
+	 * @throws InterruptedIOException if the daemon is stopped while waiting
+	 */
+	private static String await(Future<Void> result) throws InterruptedIOException{
+		try{
+			result.get();
+			return null;
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a job");
+		}
+		catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			String message = (cause instanceof FileNotFoundException) ? cause.getMessage() : cause.toString();
+			// writeUTF takes at most 64 KB, and nobody reads a longer message anyway.
+			return (message.length() > 1000) ? message.substring(0, 1000) : message;
+		}
+	}
+
+	/**
+	 * Runs a job on the workers: large files in a task of their own, small files in a batch.
+	 * @param job the job to run
+	 * @return the job's result, which fails with the exception the job threw
+	 */
+	private Future<Void> submit(final CompressionJob job){
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		final long size = new File(job.getInputPath()).length();
+		// large files are worth reading and writing on threads of their own.
+		final boolean large = size >= SMALL_FILE;
+		Runnable task = new Runnable(){
+			public void run(){
+				try{
+					runJob(job, large);
+					result.complete(null);
+				}
+				catch (Throwable e){
+					// an Error (say, running out of memory on a hostile file) must still answer the client.
+					result.completeExceptionally(e);
+				}
+			}
+		};
+		try{
+			if (large){
+				workers.execute(task);
+			}
+			else{
+				addToBatch(task, size);
+			}
+		}
+		catch (RejectedExecutionException e){
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Compresses, decompresses or verifies a file.
+	 * @param job the job to run
+	 * @param pipelined whether to read and write the files on threads of their own
+	 * @throws IOException if a file cannot be read or written, or does not match its checksums
+	 */
+	private void runJob(CompressionJob job, boolean pipelined) throws IOException{
+		if (job.getOperation() == CompressionJob.COMPRESS){
+			HuffmanEncoding.encodeFile(job.getInputPath(), job.getOutputPath(), pipelined, job.isAdaptive(),
+					tableCache);
+		}
+		else{
+			// (the output path is null when verifying.)
+			HuffmanEncoding.decodeFile(job.getInputPath(), job.getOutputPath(), pipelined, tableCache);
+		}
+	}
+
+	/**
+	 * Adds a small job to the batch, running the batch if it is full and otherwise making sure it runs
+	 * shortly.
+	 * @param task the job
+	 * @param size the size of the job's input file
+	 */
+	private void addToBatch(Runnable task, long size){
+		List<Runnable> full = null;
+		synchronized (this){
+			batch.add(task);
+			batchBytes += size;
+			if (batch.size() >= BATCH_JOBS || batchBytes >= BATCH_BYTES){
+				full = takeBatch();
+			}
+			else if (batch.size() == 1){
+				batchDeadline = batchTimer.schedule(new Runnable(){
+					public void run(){
+						List<Runnable> due = takeBatch();
+						if (!due.isEmpty()){
+							runBatch(due);
+						}
+					}
+				}, BATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+		// hand the batch to the workers outside the lock, since that can wait for room in the queue.
+		if (full != null){
+			runBatch(full);
+		}
+	}
+
+	/**
+	 * Takes the jobs of the batch, leaving an empty batch behind.
+	 * @return the jobs taken, which may be none if the batch was taken already
+	 */
+	private synchronized List<Runnable> takeBatch(){
+		List<Runnable> taken = batch;
+		batch = new ArrayList<Runnable>();
+		batchBytes = 0;
+		if (batchDeadline != null){
+			batchDeadline.cancel(false);
+			batchDeadline = null;
+		}
+		return taken;
+	}
+
+	/**
+	 * Runs the jobs of a batch one after another on a single worker.
+	 * @param jobs the jobs of the batch
+	 */
+	private void runBatch(final List<Runnable> jobs){
+		workers.execute(new Runnable(){
+			public void run(){
+				for (Runnable job : jobs){
+					// one job going wrong must not keep the rest of the batch from running.
+					try{
+						job.run();
+					}
+					catch (Throwable e){
+						System.err.println("A batched job failed: " + e);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting clients, lets the jobs already queued finish, and removes the socket file.
+	 */
+	public synchronized void stop(){
+		if (stopped){
+			return;
+		}
+		stopped = true;
+		try{
+			server.close();
+		}
+		catch (IOException e){
+			// the socket file is removed below anyway.
+		}
+		batchTimer.shutdown();
+		// run whatever is still waiting in the batch, so that no client waits forever.
+		List<Runnable> due = takeBatch();
+		if (!due.isEmpty()){
+			runBatch(due);
+		}
+		workers.shutdown();
+		connections.shutdown();
+		try{
+			Files.deleteIfExists(socketPath);
+		}
+		catch (IOException e){
+			System.err.println("Could not remove " + socketPath + ": " + e);
+		}
+	}
+
+	/**
+	 * simple to string method, including how well the cache of code tables is doing.
+	 */
+	public String toString(){
+		return "HuffmanDaemon on " + socketPath + ", " + workers.getActiveCount() + " busy workers, " + tableCache;
+	}
+
+	/**
+	 * main method that runs a daemon until a client stops it or the process is killed.
+	 * @param args the path of the socket, optionally followed by "-threads n" (the number of processors by
+	 * default) and "-cache n" (the number of code tables to cache, 32 by default).
+	 */
+	public static void main(String [] args){
+		String socketPath = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int cacheCapacity = 32;
+		try{
+			for (int i = 0; i < args.length; i++){
+				if (args[i].equals("-threads") && i + 1 < args.length){
+					threads = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-cache") && i + 1 < args.length){
+					cacheCapacity = Integer.parseInt(args[++i]);
+				}
+				else{
+					socketPath = args[i];
+				}
+			}
+		}
+		catch (NumberFormatException e){
+			socketPath = null;
+		}
+		if (socketPath == null){
+			System.err.println("Usage: HuffmanDaemon socket [-threads n] [-cache n]");
+			return;
+		}
+		try{
+			final HuffmanDaemon daemon = new HuffmanDaemon(socketPath, threads, cacheCapacity);
+			// remove the socket file when killed, too.
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				public void run(){
+					daemon.stop();
+				}
+			}));
+			System.err.println("Listening on " + daemon.socketPath);
+			daemon.serve();
+			System.err.println("Stopped " + daemon);
+		}
+		catch (IOException e) {
+			System.err.println("The daemon could not run.");
+			e.printStackTrace();
+		}
+	}
+}
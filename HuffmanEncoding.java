@@ -1,158 +1,180 @@
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import javax.swing.JFileChooser;
 
 /**
  * Class HuffmanEncoding.java
  * Program to run huffman encoding.
+ * A compressed file starts with a header holding the frequency tables and the CRC32C checksums of the
+ * original content (see BlockPlan.java and BlockChecksums.java), followed by the code of every character. The codes
+ * are the canonical codes for the code lengths of a huffman tree (see CodeTable.java). The checksums are
+ * verified whenever the file is decompressed or verified. Content made of long runs of the same byte is
+ * stored as run lengths instead (see RunLengthEncoder.java), which the header marks with a different mode.
  * @author nahokitade
  */
 public class HuffmanEncoding{
-	
+	/** first four bytes of every compressed file ("HUF2", since the codes became canonical, see CodeTable.java). */
+	private static final int MAGIC = 0x48554632;
+	/** mode of content stored as huffman codes. */
+	private static final int MODE_CODES = 0;
+	/** mode of content stored as run lengths. */
+	private static final int MODE_RUNS = 1;
 	
 	/**
-	 * creates and returns a frequency table represented as a map for each of the characters of the chosen file
+	 * creates and returns a histogram of the characters of the chosen file
 	 * @param inputPathName Path name of the input file chosen to compress
-	 * @return Map<Character, Integer> representing a frequency table for each of the characters of the file.
+	 * @param checksums checksums to compute over the content of the file while it is read
+	 * @param blocks list to add the histograms of the blocks of the file to (see BlockPlan.addToBlocks), or
+	 * null if they are not needed.
+	 * @param pipelined whether to read the file ahead on a separate thread
+	 * @return Histogram of the characters of the file, from which its frequency table is made.
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 */
-	private static Map<Character, Integer> generateFreqTable(String inputPathName) throws FileNotFoundException, IOException{
-		// creates bufferedReader for the file chosen, and creates an empty frequency table.
-		BufferedReader input =  new BufferedReader(new FileReader(inputPathName));
-		Map<Character, Integer> freqTable = new HashMap<Character, Integer>();
-		Character character;
-		int intChar; 
+	private static Histogram generateHistogram(String inputPathName, BlockChecksums checksums, List<Histogram> blocks, 
+			boolean pipelined) throws FileNotFoundException, IOException{
+		// opens a channelreader for the file chosen. Every byte of the file is one character.
+		ChannelReader input = new ChannelReader(inputPathName, pipelined);
+		Histogram histogram = new Histogram();
+		ByteBuffer buffer;
 		try{
-			while((intChar = input.read()) != -1){ //loops until end of the file
-				character = (char) intChar; // casts read character into a char. 
-				//if character is contained as a key in the frequency table, just increment the frequency by 1.
-				if (freqTable.containsKey(character)){ 
-					Integer frequency = freqTable.get(character);
-					frequency ++;
-					freqTable.put(character, frequency);
-				}
-				//if character is not contained yet, put that character and the new frequency, 1.
-				else{
-					freqTable.put(character, 1);
+			while((buffer = input.next()) != null){ //loops until end of the file
+				checksums.update(buffer);
+				histogram.add(buffer);
+				if (blocks != null){
+					BlockPlan.addToBlocks(blocks, buffer);
 				}
 			}
-			return freqTable;
 		}
 		finally{
 			// close the file no matter what.
 			input.close();
 		}
+		checksums.finish();
+		return histogram;
 	}
 	
 	/**
-	 * Creates and returns a priority queue containing singleton trees for all the characters in the 
-	 * frequency table.
-	 * @param freqTable Frequency table of the characters of a file chosen.
-	 * @return priority queue containing singleton trees for all the characters in the frequency table.
+	 * Plans which code tables content is written with.
+	 * @param histogram histogram of the whole content
+	 * @param blocks histograms of the blocks of the content, or null to write it all with one table.
+	 * @param cache where to look up the codes of the tables, or null to make them
+	 * @return the plan
 	 */
-	private static PriorityQueue<BinaryTree<CharFrequency>> singletonTree(Map<Character, Integer> freqTable){
-		// creates priority queue, a set containing all the characters in the frequency table, and a iterator
-		//that iterates through said set.
-		PriorityQueue<BinaryTree<CharFrequency>> PriorQueSingletonTree = 
-				new PriorityQueue<BinaryTree<CharFrequency>>(1, new TreeComparator()); // compares tree with TreeComparator()
-		Set<Character> characters = freqTable.keySet();
-		Iterator<Character> characterIter = characters.iterator();
-		// loop though all the characters in the frequency table.
-		while (characterIter.hasNext()){
-			Character currentCharacter = characterIter.next();
-			// make the character and its frequency into a charFrequency object.
-			CharFrequency currentCharFrequency = 
-					new CharFrequency(currentCharacter, freqTable.get(currentCharacter));
-			// make a singleton tree with that created CharFrequency object.
-			BinaryTree<CharFrequency> singletonTree = new BinaryTree<CharFrequency>(currentCharFrequency);
-			// add that singleton tree into the priority queue. 
-			PriorQueSingletonTree.add(singletonTree);
+	private static BlockPlan makePlan(Histogram histogram, List<Histogram> blocks, TableCache cache){
+		BlockPlan single = BlockPlan.single(histogram, cache);
+		// a single block gains nothing from the adaptive plan.
+		if (blocks == null || blocks.size() <= 1){
+			return single;
 		}
-		return PriorQueSingletonTree;
+		// the adaptive plan decides from estimates, so only keep it if it really is smaller.
+		BlockPlan adaptive = BlockPlan.adaptive(blocks, cache);
+		return (adaptive.compressedBytes() < single.compressedBytes()) ? adaptive : single;
+	}
+	
+	/**
+	 * Decides whether content takes fewer bytes as run lengths than as huffman codes with their frequency
+	 * tables.
+	 * @param histogram histogram of the content
+	 * @param plan plan of the tables the content would be written with
+	 * @return true if the content should be stored as run lengths.
+	 */
+	private static boolean useRunLengths(Histogram histogram, BlockPlan plan){
+		return histogram.getLength() > 0 && histogram.runLengthBytes() < plan.compressedBytes();
 	}
 	
 	/**
-	 * Creates a tree that can be used to create the most efficient 0, 1 code for the file chosen.
-	 * @param singletonTree priority queue containing singleton trees for all the characters in the frequency table.
-	 * @return a code tree (binary tree) that can be used to create the most efficient 0, 1 code for the file chosen.
+	 * Writes the header of a compressed file: the magic number, the mode, the plan of code tables when the
+	 * content is stored as codes, and the checksums.
+	 * @param bitOutput writer of the compressed file
+	 * @param plan plan of the code tables of the original file, or null if it is stored as run lengths.
+	 * @param checksums checksums of the original file
+	 * @throws IOException
 	 */
-	private static BinaryTree<CharFrequency> codeTree(PriorityQueue<BinaryTree<CharFrequency>> singletonTree){
-		// go through loop until there is only 1 singletonTree left in the priority queue.
-		while (singletonTree.size() > 1){
-			//pick out and store the two smallest singleton trees (smallest being the one with the smallest frequency)
-			BinaryTree<CharFrequency> smallest1 = singletonTree.poll();
-			Integer freq1 = smallest1.getValue().getFreq();
-			BinaryTree<CharFrequency> smallest2 = singletonTree.poll();
-			Integer freq2 = smallest2.getValue().getFreq();
-			// get the frequency of those two trees, and add the frequencies to calculate the frequency of the root 
-			// that combines these two trees together.  
-			Integer addedFreq = freq1 + freq2;
-			// make a new tree by combining the two trees with the appropriate root.
-			BinaryTree<CharFrequency> newTree = new BinaryTree<CharFrequency>(new CharFrequency(null, addedFreq), 
-					smallest1, smallest2);
-			//Add this tree into the priority queue. 
-			singletonTree.add(newTree);
+	private static void writeHeader(BufferedBitWriter bitOutput, BlockPlan plan, BlockChecksums checksums) 
+			throws IOException{
+		bitOutput.writeBits(MAGIC, 32);
+		if (plan == null){
+			bitOutput.writeBits(MODE_RUNS, 8);
+		}
+		else{
+			bitOutput.writeBits(MODE_CODES, 8);
+			plan.write(bitOutput);
 		}
-		// return the head of that priority queue because there is only one left anyway.
-		return singletonTree.poll();
+		checksums.write(bitOutput);
 	}
 	
 	/**
-	 * creates and returns a map containing the character and its appropriate/ most efficient code. 
-	 * @param charCodePair stores the character and code pair. 
-	 * @param codeTree the tree that can be used to create the most efficient 0, 1 code for the file chosen.
-	 * @param pathSoFar the code written for the character so far.
+	 * Reads the magic number, mode and plan of code tables written by writeHeader. The checksums that follow
+	 * are left for BlockChecksums.read.
+	 * @param bitInput reader of the compressed file
+	 * @param cache where to look up the codes of the tables, or null to make them
+	 * @return the plan of code tables, or null if the content is stored as run lengths.
+	 * @throws IOException if the file is not a compressed file.
 	 */
-	private static Map<Character, String> retrieveCode(Map<Character, String> charCodePair, BinaryTree<CharFrequency> codeTree, String pathSoFar){
-		if (codeTree == null){ //happens at the boundary if the file chosen was empty.
-			return null; //if the file is empty, there is no need for any codes, so return null.
+	private static BlockPlan readPlan(BufferedBitReader bitInput, TableCache cache) throws IOException{
+		if (bitInput.readBits(32) != MAGIC){
+			throw new IOException("Not a compressed file");
 		}
-		if (codeTree.isLeaf()){ // base case. put in the character and code pair into the map if we hit the leaf. 
-			charCodePair.put(codeTree.getValue().getChar(), pathSoFar);
+		int mode = bitInput.readBits(8);
+		if (mode == MODE_RUNS){
+			return null;
 		}
-		else{
-			// call the method recursively for the left after adding "0" to path so far.
-			if(codeTree.hasLeft()){
-				pathSoFar += "0";
-				retrieveCode(charCodePair, codeTree.getLeft(), pathSoFar);
-				//Every time it returns, we want to take off the last digit
-					pathSoFar = pathSoFar.substring(0, pathSoFar.length() - 1);
+		if (mode != MODE_CODES){
+			throw new IOException("Unknown compression mode: " + mode);
+		}
+		return BlockPlan.read(bitInput, cache);
+	}
+	
+	/**
+	 * Writes content as run lengths, or as codes following a plan.
+	 * @param plan plan of the code tables of the content, or null to write it as run lengths.
+	 * @param content the content, read to the end
+	 * @param bitOutput the writer to write to, just after the header
+	 * @throws IOException
+	 */
+	private static void encodeContent(BlockPlan plan, ChannelReader content, BufferedBitWriter bitOutput) throws IOException{
+		ByteBuffer buffer;
+		if (plan == null){
+			RunLengthEncoder runs = new RunLengthEncoder(bitOutput);
+			// loop through until the end of the input. 
+			while ((buffer = content.next()) != null){
+				runs.encode(buffer);
 			}
-			// call the method recursively for the left after adding "1" to path so far.
-			if(codeTree.hasRight()){
-				pathSoFar += "1";
-				retrieveCode(charCodePair, codeTree.getRight(), pathSoFar);
-				//Every time it returns, we want to take off the last digit.
-				pathSoFar = pathSoFar.substring(0, pathSoFar.length() - 1);
+			runs.finish();
+		}
+		else{
+			BlockEncoder codes = new BlockEncoder(plan, bitOutput);
+			// loop through until the end of the input. 
+			while ((buffer = content.next()) != null){
+				codes.encode(buffer);
 			}
+			codes.finish();
 		}
-		return charCodePair;
 	}
 	
 	/**
 	 * Method to compress a file given all its needed parameters.
-	 * @param codeMap map containing the appropriate character code pair for the file chosen.
+	 * @param plan plan of the code tables of the file chosen, stored in the header, or null to store the file
+	 * as run lengths.
+	 * @param checksums checksums of the file chosen, stored in the header.
 	 * @param inputPathName the path of the input
 	 * @param compressedPathName the path if the compressed output
+	 * @param pipelined whether to read the input and write the output on threads of their own, so that 
+	 * reading, encoding and writing overlap
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 */
-	private static void compressFile(Map<Character, String> codeMap, String inputPathName, String compressedPathName) throws FileNotFoundException, IOException{
-		// read the create a bufferedreader and bufferedbitwriter for the input and output. 
-		BufferedReader input =  new BufferedReader(new FileReader(inputPathName));
-		BufferedBitWriter bitOutput = new BufferedBitWriter(compressedPathName);
-		int intChar;
+	private static void compressFile(BlockPlan plan, BlockChecksums checksums, String inputPathName, 
+			String compressedPathName, boolean pipelined) throws FileNotFoundException, IOException{
+		// open a channelreader for the input and a bufferedbitwriter for the output. 
+		ChannelReader input = new ChannelReader(inputPathName, pipelined);
+		BufferedBitWriter bitOutput = new BufferedBitWriter(compressedPathName, pipelined);
 		try{
-			// loop through until the end of the input. 
-			while((intChar = input.read()) != -1){
-				Character character = ((char) intChar); // cast to char from an int.
-				String code = codeMap.get(character); // get that character's code from the codeMap.
-				for (int i = 0; i < code.length(); i++){ // iterate through the code
-					int codeBitInt = code.charAt(i) - '0'; // make each character of the code into an int
-					bitOutput.writeBit(codeBitInt); //write that int (0 or 1s) out into a file.
-				}
-			}
+			writeHeader(bitOutput, plan, checksums);
+			encodeContent(plan, input, bitOutput);
 		}
 		//close the files no matter what.
 		finally{
@@ -162,55 +184,468 @@ public class HuffmanEncoding{
 	}
 	
 	/**
-	 * Decompresses a compressed file given its codeTree.
-	 * @param codeTree a code tree (binary tree) that can be used to create the most efficient 0, 1 code for the file chosen.
+	 * Decompresses a compressed file, rebuilding its code tree from the header and checking every block of the
+	 * decoded content against the checksums stored there.
 	 * @param compressedPathName path of the compressed file
-	 * @param decompressedPathName path of the decompressed file
+	 * @param decompressedPathName path of the decompressed file, or null to only verify the compressed file
+	 * without writing anything.
+	 * @param pipelined whether to read the input and write the output on threads of their own, so that 
+	 * reading, decoding and writing overlap
+	 * @param cache where to look up the code tables, or null to make them
+	 * @throws IOException if the file cannot be read or written, or does not match its checksums. The
+	 * decompressed file is deleted then, so that no partly decoded content is left behind.
+	 */
+	private static void decompressFile(String compressedPathName, String decompressedPathName, boolean pipelined,
+			TableCache cache) throws IOException{
+		// creates the bufferedbitreader for the compressed file, and a channelwriter for the decompressed file
+		// unless we are only verifying.
+		BufferedBitReader bitInput = new BufferedBitReader(compressedPathName, pipelined);
+		ChannelWriter output = null;
+		boolean opened = false;
+		boolean decoded = false;
+		try{
+			if (decompressedPathName != null){
+				output = new ChannelWriter(decompressedPathName, pipelined);
+				opened = true;
+			}
+			decodeContent(bitInput, null, output, cache);
+			// the last buffers are only written out on close, which can fail too.
+			if (output != null){
+				ChannelWriter closing = output;
+				output = null;
+				closing.close();
+			}
+			decoded = true;
+		}
+		// close the files no matter what.
+		finally{
+			try{
+				if (output != null){
+					output.close();
+				}
+			}
+			catch (IOException e){
+				// the content was bad or could not be written already, which is what gets reported.
+			}
+			finally{
+				bitInput.close();
+				// (a file that could not even be opened is not ours to delete.)
+				if (opened && !decoded){
+					new File(decompressedPathName).delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Decodes compressed content, rebuilding its code tables from the header and checking every block of the
+	 * decoded content against the checksums stored there.
+	 * @param bitInput reader of the compressed content, positioned at its header
+	 * @param dst buffer to decode into, starting at its position, or null to decode through a pooled buffer
+	 * into output.
+	 * @param output writer of the decoded content when dst is null, or null to only verify the content.
+	 * @param cache where to look up the code tables, or null to make them
+	 * @return the number of characters decoded.
+	 * @throws IOException if the content cannot be read or written, or does not match its checksums.
+	 * @throws java.nio.BufferOverflowException if dst is too small for the decoded content.
+	 */
+	private static long decodeContent(BufferedBitReader bitInput, ByteBuffer dst, ChannelWriter output,
+			TableCache cache) throws IOException{
+		BlockPlan plan = readPlan(bitInput, cache);
+		BlockChecksums expected = BlockChecksums.read(bitInput);
+		BlockChecksums checksums = new BlockChecksums(expected);
+		long length = expected.getLength();
+		if (plan != null && plan.totalLength() != length){
+			throw new IOException("Segments hold " + plan.totalLength() + " characters but expected " + length);
+		}
+		if (dst != null && dst.remaining() < length){
+			throw new BufferOverflowException();
+		}
+		// decoded characters go straight into dst, or else are collected in a pooled buffer, which is 
+		// checksummed before it is written out.
+		int start = (dst != null) ? dst.position() : 0;
+		ByteBuffer buffer = (dst != null) ? dst : BufferPool.acquire();
+		try{
+			if (plan == null){
+				decodeRuns(length, bitInput, buffer, checksums, output);
+			}
+			else{
+				decodeSegments(plan, bitInput, buffer, checksums, output);
+			}
+			if (dst != null){
+				// checksum everything decoded into dst, leaving its position after the decoded content.
+				int end = dst.position();
+				int limit = dst.limit();
+				dst.limit(end).position(start);
+				checksums.update(dst);
+				dst.limit(limit).position(end);
+			}
+			else{
+				writeOutput(buffer, checksums, output);
+			}
+			checksums.finish();
+			return length;
+		}
+		finally{
+			if (dst == null){
+				BufferPool.release(buffer);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes the segments of content written with codes, switching to each segment's table in turn. Every
+	 * table's decode table is only built once it is worth it, however many segments use it, and a decode
+	 * table built before (for a table found in the cache) is always used, since it costs nothing to set up.
+	 * @param plan plan of the code tables of the content
+	 * @param bitInput reader of the codes, at a byte boundary
+	 * @param buffer buffer to put the characters into, passed on to writeOutput whenever it fills up
+	 * @param checksums checksums being verified, see writeOutput
+	 * @param output writer of the decoded content, see writeOutput
+	 * @throws IOException
+	 */
+	private static void decodeSegments(BlockPlan plan, BufferedBitReader bitInput, ByteBuffer buffer, 
+			BlockChecksums checksums, ChannelWriter output) throws IOException{
+		for (int segment = 0; segment < plan.segmentCount(); segment++){
+			int table = plan.segmentTable(segment);
+			long length = plan.segmentLength(segment);
+			CodeTable codeTable = plan.codeTable(table);
+			BinaryTree<CharFrequency> codeTree = codeTable.getCodeTree();
+			DecodeTable decodeTable = codeTable.getDecodeTable(
+					DecodeTable.worthBuilding(codeTree, plan.tableLength(table)));
+			if (decodeTable != null){
+				decodeWithTable(decodeTable, length, bitInput, buffer, checksums, output);
+			}
+			else{
+				decodeWithTree(codeTree, length, bitInput, buffer, checksums, output);
+			}
+			// every segment's codes are padded to a byte boundary.
+			bitInput.alignToByte();
+		}
+	}
+	
+	/**
+	 * Decodes characters by walking the code tree one bit at a time. This needs no set up, so it is used for
+	 * short content and for the special case of a single character. (Not private, so that DecodeBenchmark.java
+	 * can time it.)
+	 * @param codeTree the code tree of the content
+	 * @param length number of characters to decode
+	 * @param bitInput reader of the codes
+	 * @param buffer buffer to put the characters into, passed on to writeOutput whenever it fills up
+	 * @param checksums checksums being verified, see writeOutput
+	 * @param output writer of the decoded content, see writeOutput
+	 * @throws IOException
+	 */
+	static void decodeWithTree(BinaryTree<CharFrequency> codeTree, long length, BufferedBitReader bitInput,
+			ByteBuffer buffer, BlockChecksums checksums, ChannelWriter output) throws IOException{
+		// loop until all the characters of the original file have been decoded.
+		for (long remaining = length; remaining > 0; remaining--){
+			// start every character at the root of the code tree.
+			BinaryTree<CharFrequency> codeTreeIter = codeTree;
+			// applies to a special case when the original file contained only 1 type of character, whose
+			// code is the single bit 0.
+			if (codeTree.isLeaf()){
+				if (bitInput.readBit() == -1){
+					throw new EOFException("Compressed file ended early");
+				}
+			}
+			//if we havent hit the leaf, iterate to the left if the next bit is 0, and iterate to the right
+			// if the next bit is 1.
+			while (!codeTreeIter.isLeaf()){
+				int nextBit = bitInput.readBit();
+				if (nextBit == 0){
+					codeTreeIter = codeTreeIter.getLeft();
+				}
+				else if (nextBit == 1){
+					codeTreeIter = codeTreeIter.getRight();
+				}
+				else{
+					throw new EOFException("Compressed file ended early");
+				}
+			}
+			// when the iterator hits a leaf, put out the character stored at that node.
+			if (!buffer.hasRemaining()){
+				writeOutput(buffer, checksums, output);
+			}
+			buffer.put((byte) codeTreeIter.getValue().getChar().charValue());
+		}
+	}
+	
+	/**
+	 * Decodes characters a whole byte of codes at a time using a decode table. (Not private, so that
+	 * DecodeBenchmark.java can time it.)
+	 * @param table the decode table of the content's code tree
+	 * @param length number of characters to decode
+	 * @param bitInput reader of the codes, at a byte boundary
+	 * @param buffer buffer to put the characters into, passed on to writeOutput whenever it fills up
+	 * @param checksums checksums being verified, see writeOutput
+	 * @param output writer of the decoded content, see writeOutput
 	 * @throws IOException
 	 */
-	private static void decompressFile(BinaryTree<CharFrequency> codeTree, String compressedPathName, String decompressedPathName) throws IOException{
-		// creates the bufferedbitreader and bufferedwriter for the compressed and decompressed files.
-		BufferedBitReader bitInput = new BufferedBitReader(compressedPathName);
-		BufferedWriter output = new BufferedWriter(new FileWriter(decompressedPathName));
-		// initialize the binary tree that will act an an iterator for the codeTree.
-		BinaryTree<CharFrequency> codeTreeIter = codeTree;
-		int nextBit;
+	static void decodeWithTable(DecodeTable table, long length, BufferedBitReader bitInput,
+			ByteBuffer buffer, BlockChecksums checksums, ChannelWriter output) throws IOException{
+		int state = 0;
+		long remaining = length;
+		while (remaining > 0){
+			int nextByte = bitInput.readAlignedByte();
+			if (nextByte == -1){
+				throw new EOFException("Compressed file ended early");
+			}
+			int entry = table.entry(state, nextByte);
+			// the last byte can hold padding after the final character, so never put out more than remain.
+			int count = (int) Math.min(table.count(entry), remaining);
+			long characters = table.characters(entry);
+			for (int i = 0; i < count; i++){
+				if (!buffer.hasRemaining()){
+					writeOutput(buffer, checksums, output);
+				}
+				buffer.put((byte) characters);
+				characters >>>= 8;
+			}
+			remaining -= count;
+			state = table.nextState(entry);
+		}
+	}
+	
+	/**
+	 * Decodes content stored as run lengths by RunLengthEncoder, filling in each run with bulk copies.
+	 * @param length number of characters to decode
+	 * @param bitInput reader of the runs, at a byte boundary
+	 * @param buffer buffer to put the characters into, passed on to writeOutput whenever it fills up
+	 * @param checksums checksums being verified, see writeOutput
+	 * @param output writer of the decoded content, see writeOutput
+	 * @throws IOException if the runs are invalid, or see writeOutput
+	 */
+	private static void decodeRuns(long length, BufferedBitReader bitInput, ByteBuffer buffer, 
+			BlockChecksums checksums, ChannelWriter output) throws IOException{
+		// long runs are copied out of a pooled buffer holding nothing but the run's character.
+		ByteBuffer pattern = BufferPool.acquire();
+		int patternCharacter = -1;
+		int patternLength = 0;  // bytes of the pattern holding patternCharacter, at most 4096
+		long remaining = length;
 		try{
-			// loop until the end of the input file.
-			while ((nextBit = bitInput.readBit()) != -1){
-				// applies to a special case when the original file contained only 1 type of character.
-				if (codeTree.size() == 1){
-					//write that 1 type of character.
-					output.write(codeTree.getValue().getChar());
-					// avoids null pointer exception for the next if statement, "if (nextBit == 0)"
-					codeTreeIter = codeTree;
+			while (remaining > 0){
+				int character = bitInput.readAlignedByte();
+				// the run length, in 7-bit groups with the lowest group first.
+				long runLength = 0;
+				int group;
+				int shift = 0;
+				do{
+					group = bitInput.readAlignedByte();
+					if (group == -1 || shift > 56){
+						throw new EOFException("Compressed file ended early");
+					}
+					runLength |= (long) (group & 0x7F) << shift;
+					shift += 7;
+				} while ((group & 0x80) != 0);
+				if (character == -1 || runLength <= 0 || runLength > remaining){
+					throw new IOException("Invalid run of length " + runLength);
+				}
+				remaining -= runLength;
+				if (runLength >= 64){
+					if (character != patternCharacter){
+						patternCharacter = character;
+						patternLength = 0;
+					}
+					// only fill as much of the pattern as the run needs.
+					int wanted = (int) Math.min(runLength, 4096);
+					pattern.clear();
+					for (; patternLength < wanted; patternLength++){
+						pattern.put(patternLength, (byte) character);
+					}
 				}
-				else{ 
-					//if we havent hit the leaf, iterate to the left if the next bit is 0, and iterate to the right
-					// if the next bit is 1.
-					if (nextBit == 0){
-						codeTreeIter = codeTreeIter.getLeft();
+				// put the run out in pieces that fit in the buffer and the pattern.
+				while (runLength > 0){
+					if (!buffer.hasRemaining()){
+						writeOutput(buffer, checksums, output);
 					}
-					else if (nextBit == 1){
-						codeTreeIter = codeTreeIter.getRight();
+					int count = (int) Math.min(runLength, buffer.remaining());
+					if (character == patternCharacter){
+						count = Math.min(count, patternLength);
+						pattern.limit(count).position(0);
+						buffer.put(pattern);
 					}
-					// if it is not that special case, and the iterator hits a leaf, write out the character stored at
-					// that node.
-					if (codeTreeIter.isLeaf()){
-						output.write(codeTreeIter.getValue().getChar());
-						// make codeTreeIter point to the root of the codeTree again.
-						codeTreeIter = codeTree;
+					else{
+						for (int i = 0; i < count; i++){
+							buffer.put((byte) character);
+						}
 					}
+					runLength -= count;
 				}
 			}
 		}
-		// close the files no matter what.
 		finally{
-			output.close();
-			bitInput.close();
+			BufferPool.release(pattern);
 		}
 	}
 	
+	/**
+	 * Checksums the decoded characters collected in a buffer, writes them out and empties the buffer.
+	 * @param buffer buffer holding the decoded characters
+	 * @param checksums checksums being verified against the header of the compressed file
+	 * @param output writer of the decompressed file, or null when only verifying.
+	 * @throws IOException if a block does not match its checksum, or the output cannot be written.
+	 */
+	private static void writeOutput(ByteBuffer buffer, BlockChecksums checksums, ChannelWriter output) throws IOException{
+		buffer.flip();
+		checksums.update(buffer);
+		if (output != null){
+			output.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Compresses the bytes between the position and the limit of src into dst, starting at the position of
+	 * dst, in the same format as a compressed file. Heap and direct buffers are both read and written in
+	 * place. On success the position of src is moved to its limit and the position of dst past the
+	 * compressed content; if dst is too small, neither position is changed. Code tables are looked up in
+	 * TableCache.shared(), so compressing similar content again builds nothing.
+	 * @param src the content to compress
+	 * @param dst the buffer to compress into, with at least maxCompressedLength(src.remaining()) bytes left
+	 * to be sure it fits.
+	 * @return the number of bytes written to dst.
+	 * @throws BufferOverflowException if dst is too small.
+	 */
+	public static int compress(ByteBuffer src, ByteBuffer dst){
+		return compress(src, dst, false);
+	}
+	
+	/**
+	 * Compresses the bytes between the position and the limit of src into dst, like compress(src, dst).
+	 * @param src the content to compress
+	 * @param dst the buffer to compress into, with at least maxCompressedLength(src.remaining()) bytes left
+	 * to be sure it fits.
+	 * @param adaptive whether to switch to new code tables where the statistics of the content change.
+	 * @return the number of bytes written to dst.
+	 * @throws BufferOverflowException if dst is too small.
+	 */
+	public static int compress(ByteBuffer src, ByteBuffer dst, boolean adaptive){
+		int srcStart = src.position();
+		int dstStart = dst.position();
+		try{
+			// count the characters and checksum the content without moving src.
+			Histogram histogram = new Histogram();
+			histogram.add(src);
+			List<Histogram> blocks = null;
+			if (adaptive){
+				blocks = new ArrayList<Histogram>();
+				BlockPlan.addToBlocks(blocks, src);
+			}
+			BlockChecksums checksums = new BlockChecksums(BlockChecksums.DEFAULT_BLOCK_SIZE);
+			checksums.update(src);
+			checksums.finish();
+			BlockPlan plan = makePlan(histogram, blocks, TableCache.shared());
+			// then write the header and the runs or codes straight into dst.
+			BufferedBitWriter bitOutput = new BufferedBitWriter(dst);
+			if (useRunLengths(histogram, plan)){
+				writeHeader(bitOutput, null, checksums);
+				RunLengthEncoder runs = new RunLengthEncoder(bitOutput);
+				runs.encode(src);
+				runs.finish();
+			}
+			else{
+				writeHeader(bitOutput, plan, checksums);
+				BlockEncoder codes = new BlockEncoder(plan, bitOutput);
+				codes.encode(src);
+				codes.finish();
+			}
+			bitOutput.close();
+			return dst.position() - dstStart;
+		}
+		catch (IOException e){
+			// writing to memory does no I/O, so this cannot happen.
+			throw new UncheckedIOException(e);
+		}
+		catch (RuntimeException e){
+			src.position(srcStart);
+			dst.position(dstStart);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Compresses len bytes of src starting at srcOff into dst starting at dstOff.
+	 * @param src the content to compress
+	 * @param srcOff offset of the content in src
+	 * @param len number of bytes to compress
+	 * @param dst the array to compress into
+	 * @param dstOff offset in dst to start writing at
+	 * @return the number of bytes written to dst.
+	 * @throws BufferOverflowException if dst is too small.
+	 */
+	public static int compress(byte[] src, int srcOff, int len, byte[] dst, int dstOff){
+		return compress(ByteBuffer.wrap(src, srcOff, len), ByteBuffer.wrap(dst, dstOff, dst.length - dstOff));
+	}
+	
+	/**
+	 * Decompresses content compressed by compress (or a compressed file) from the bytes between the position
+	 * and the limit of src into dst, starting at the position of dst, verifying it against its checksums.
+	 * Heap and direct buffers are both read and written in place. On success the position of src is moved to
+	 * its limit and the position of dst past the decompressed content. Code tables, and their decode tables, are looked up in
+	 * TableCache.shared().
+	 * @param src the compressed content, exactly
+	 * @param dst the buffer to decompress into, with at least decompressedLength(src) bytes left.
+	 * @return the number of bytes written to dst.
+	 * @throws IOException if src is not valid compressed content or does not match its checksums.
+	 * @throws BufferOverflowException if dst is too small.
+	 */
+	public static int decompress(ByteBuffer src, ByteBuffer dst) throws IOException{
+		return (int) decodeContent(new BufferedBitReader(src), dst, null, TableCache.shared());
+	}
+	
+	/**
+	 * Decompresses len bytes of compressed content in src starting at srcOff into dst starting at dstOff.
+	 * @param src the compressed content
+	 * @param srcOff offset of the compressed content in src
+	 * @param len number of compressed bytes
+	 * @param dst the array to decompress into
+	 * @param dstOff offset in dst to start writing at
+	 * @return the number of bytes written to dst.
+	 * @throws IOException if src is not valid compressed content or does not match its checksums.
+	 * @throws BufferOverflowException if dst is too small.
+	 */
+	public static int decompress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) throws IOException{
+		return decompress(ByteBuffer.wrap(src, srcOff, len), ByteBuffer.wrap(dst, dstOff, dst.length - dstOff));
+	}
+	
+	/**
+	 * Reads the length of the original content from the header of compressed content, without moving the
+	 * position of src.
+	 * @param src the compressed content
+	 * @return the number of bytes the content decompresses to.
+	 * @throws IOException if src is not valid compressed content.
+	 */
+	public static long decompressedLength(ByteBuffer src) throws IOException{
+		BufferedBitReader bitInput = new BufferedBitReader(src.duplicate());
+		readPlan(bitInput, null);
+		return BlockChecksums.read(bitInput).getLength();
+	}
+	
+	/**
+	 * Returns the most bytes that compressing length bytes can take, whatever the content.
+	 * @param length number of bytes to compress
+	 * @return the size of a destination buffer that is always big enough.
+	 * @throws IllegalArgumentException if length is negative or the bound does not fit in an int.
+	 */
+	public static int maxCompressedLength(int length){
+		if (length < 0){
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		long numBlocks = ((long) length + BlockChecksums.DEFAULT_BLOCK_SIZE - 1) / BlockChecksums.DEFAULT_BLOCK_SIZE;
+		// a huffman code is optimal, so with at most 256 characters it never takes more bits than the 8 bits per
+		// character of the content itself, and the single plan's one segment of codes, padded to a byte, takes
+		// at most length bytes. Run lengths and adaptive plans are only used when they are smaller than the
+		// single plan, so the bound is that of the single plan: magic and mode, a single table of up to 256
+		// entries of 5 bytes and a single segment, the checksum header, the codes, then the last partial byte
+		// and the count of its valid bits.
+		long bound = 5 + (4 + 4 + 256 * 5) + (4 + 12) + (20 + 4 * numBlocks) + (long) length + 2;
+		if (bound > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Length too large: " + length);
+		}
+		return (int) bound;
+	}
+	
 	/**
 	 * Given code to get the file path.
 	 * @return file path chosen.
@@ -234,61 +669,164 @@ public class HuffmanEncoding{
 	 * @param inputPath the path of the input file to compress.
 	 */
 	public static void runHuffmanEncoding(String inputPath){
+		runHuffmanEncoding(inputPath, false);
+	}
+	
+	/**
+	 * runs huffman encoding of a file using the private methods implemented in this class.
+	 * @param inputPath the path of the input file to compress.
+	 * @param pipelined whether to overlap reading, coding and writing on separate threads, which hides most of
+	 * the I/O latency on slow storage.
+	 */
+	public static void runHuffmanEncoding(String inputPath, boolean pipelined){
+		runHuffmanEncoding(inputPath, pipelined, false);
+	}
+	
+	/**
+	 * runs huffman encoding of a file using the private methods implemented in this class.
+	 * @param inputPath the path of the input file to compress.
+	 * @param pipelined whether to overlap reading, coding and writing on separate threads, which hides most of
+	 * the I/O latency on slow storage.
+	 * @param adaptive whether to switch to new code tables where the statistics of the file change, which
+	 * takes more time to plan but makes files whose content changes partway through smaller.
+	 */
+	public static void runHuffmanEncoding(String inputPath, boolean pipelined, boolean adaptive){
 		try{
-			BinaryTree<CharFrequency> codeTree; // variable that stores reference to the code tree.
-			// make the frequency table
-			Map<Character, Integer> freqTable = generateFreqTable(inputPath);
-			// make the singleton tree priority queue using that frequency table
-			PriorityQueue<BinaryTree<CharFrequency>> singletonTree = singletonTree(freqTable);
-			// special case when there is only one type of character used.
-			if (freqTable.size() == 1){
-				// make the codeTree a singleton tree of that one character and its frequency.
-				Set<Character> characters = freqTable.keySet();
-				Iterator<Character> characterIter = characters.iterator();
-				Character singleCharacter = characterIter.next();
-				CharFrequency singleCharFrequency = 
-						new CharFrequency(singleCharacter, freqTable.get(singleCharacter));
-				codeTree = new BinaryTree<CharFrequency>(singleCharFrequency);
-			}
-			else{
-				// if not that special case, make the code tree through the codeTree method using that priority
-				// queue of the singleton trees.
-				codeTree = codeTree(singletonTree);
-			}
-			String pathSoFar; 
-			// if the file was empty, pathSoFar should be initialized to an empty string.
-			if (codeTree == null){
-				pathSoFar = "";
-			}
-			// if the file is that special case where there is only one character, the code for that character
-			// will be "0"
-			else if (codeTree.size() == 1){
-				pathSoFar = "0";
-			}
-			//other than that, the pathSoFar starts as an empty string.
-			else{
-				pathSoFar = "";
-			}
-			// create new initial empty hashmap to pass into retrieveCode method.
-			HashMap<Character, String> initCodeMap = new HashMap<Character, String>();
-			// make the code map
-			Map<Character, String> codeMap = retrieveCode(initCodeMap, codeTree, pathSoFar);
-			//compressed path name is simply the input name with "_compressed" at the end.
-			String compressedPathName = inputPath.substring(0, inputPath.length() - 4) + "_compressed";
-			// compress the file
-			compressFile(codeMap, inputPath, compressedPathName);
-		  //decompressed path name is simply the input name with "_decompressed" at the end.
-			String decompressedFileName = inputPath.substring(0, inputPath.length() - 4) + "_decompressed";
-			//decompress the file
-			decompressFile(codeTree, compressedPathName, decompressedFileName);
-		}
-		//catch the two exceptions when either of them are thrown by any of the methods called in the 
-		//try block.
-		catch (FileNotFoundException e) {
+			encodeFile(inputPath, compressedPathFor(inputPath), pipelined, adaptive);
+		}
+		catch (IOException e) {
+			reportError(e);
+		}
+	}
+	
+	/**
+	 * compresses a file into another file, passing on any error instead of reporting it. Its code tables are
+	 * looked up in TableCache.shared().
+	 * @param inputPath the path of the input file to compress.
+	 * @param compressedPath the path of the compressed file to write.
+	 * @param pipelined whether to overlap reading, coding and writing on separate threads.
+	 * @param adaptive whether to switch to new code tables where the statistics of the file change.
+	 * @throws IOException if either file cannot be read or written.
+	 */
+	public static void encodeFile(String inputPath, String compressedPath, boolean pipelined, boolean adaptive)
+			throws IOException{
+		encodeFile(inputPath, compressedPath, pipelined, adaptive, TableCache.shared());
+	}
+	
+	/**
+	 * compresses a file into another file like encodeFile, looking up its code tables in a cache.
+	 * @param inputPath the path of the input file to compress.
+	 * @param compressedPath the path of the compressed file to write.
+	 * @param pipelined whether to overlap reading, coding and writing on separate threads.
+	 * @param adaptive whether to switch to new code tables where the statistics of the file change.
+	 * @param cache the cache to look up and add the code tables in, or null to make them every time.
+	 * @throws IOException if either file cannot be read or written.
+	 */
+	public static void encodeFile(String inputPath, String compressedPath, boolean pipelined, boolean adaptive,
+			TableCache cache) throws IOException{
+		// make the histogram and the checksums of the content
+		BlockChecksums checksums = new BlockChecksums(BlockChecksums.DEFAULT_BLOCK_SIZE);
+		List<Histogram> blocks = adaptive ? new ArrayList<Histogram>() : null;
+		Histogram histogram = generateHistogram(inputPath, checksums, blocks, pipelined);
+		// plan the code tables from that histogram, and store the file as run lengths instead if that is
+		// smaller
+		BlockPlan plan = makePlan(histogram, blocks, cache);
+		if (useRunLengths(histogram, plan)){
+			plan = null;
+		}
+		// compress the file. It is checked against its checksums when it is decompressed or verified.
+		compressFile(plan, checksums, inputPath, compressedPath, pipelined);
+	}
+	
+	/**
+	 * decompresses a file into another file, or only verifies it, passing on any error instead of reporting it.
+	 * Its code tables are looked up in TableCache.shared().
+	 * @param compressedPath the path of the compressed file.
+	 * @param decompressedPath the path of the decompressed file to write, or null to only verify the file.
+	 * @param pipelined whether to overlap reading, decoding and writing on separate threads.
+	 * @throws IOException if either file cannot be read or written, or the content does not match its checksums.
+	 */
+	public static void decodeFile(String compressedPath, String decompressedPath, boolean pipelined) throws IOException{
+		decompressFile(compressedPath, decompressedPath, pipelined, TableCache.shared());
+	}
+	
+	/**
+	 * decompresses or verifies a file like decodeFile, looking up its code tables in a cache.
+	 * @param compressedPath the path of the compressed file.
+	 * @param decompressedPath the path of the decompressed file to write, or null to only verify the file.
+	 * @param pipelined whether to overlap reading, decoding and writing on separate threads.
+	 * @param cache the cache to look up and add the code tables in, or null to make them every time.
+	 * @throws IOException if either file cannot be read or written, or the content does not match its checksums.
+	 */
+	public static void decodeFile(String compressedPath, String decompressedPath, boolean pipelined,
+			TableCache cache) throws IOException{
+		decompressFile(compressedPath, decompressedPath, pipelined, cache);
+	}
+	
+	/**
+	 * @param inputPath the path of a file to compress.
+	 * @return the path runHuffmanEncoding writes its compressed file to: the input name, without its
+	 * extension, with "_compressed" at the end.
+	 */
+	public static String compressedPathFor(String inputPath){
+		return inputPath.substring(0, inputPath.length() - 4) + "_compressed";
+	}
+	
+	/**
+	 * @param compressedPath the path of a compressed file.
+	 * @return the path runHuffmanDecoding writes its decompressed file to: the compressed name with
+	 * "_compressed" replaced by "_decompressed".
+	 */
+	public static String decompressedPathFor(String compressedPath){
+		String decompressedPathName = compressedPath;
+		if (decompressedPathName.endsWith("_compressed")){
+			decompressedPathName = decompressedPathName.substring(0, decompressedPathName.length() - 11);
+		}
+		return decompressedPathName + "_decompressed";
+	}
+	
+	/**
+	 * decompresses a file compressed by runHuffmanEncoding, verifying it against its checksums.
+	 * @param compressedPath the path of the compressed file.
+	 * @param pipelined whether to overlap reading, decoding and writing on separate threads.
+	 */
+	public static void runHuffmanDecoding(String compressedPath, boolean pipelined){
+		try{
+			decompressFile(compressedPath, decompressedPathFor(compressedPath), pipelined, TableCache.shared());
+		}
+		catch (IOException e) {
+			reportError(e);
+		}
+	}
+	
+	/**
+	 * checks a file compressed by runHuffmanEncoding by decoding it against its checksums, without writing
+	 * the decoded content anywhere.
+	 * @param compressedPath the path of the compressed file.
+	 * @param pipelined whether to read the file ahead on a separate thread.
+	 * @return true if the file decodes to content matching its checksums.
+	 */
+	public static boolean verifyHuffmanEncoding(String compressedPath, boolean pipelined){
+		try{
+			decompressFile(compressedPath, null, pipelined, TableCache.shared());
+			return true;
+		}
+		catch (IOException e) {
+			reportError(e);
+			return false;
+		}
+	}
+	
+	/**
+	 * tells the user what went wrong with a file.
+	 * @param e the exception thrown by any of the methods working on the file.
+	 */
+	private static void reportError(IOException e){
+		if (e instanceof FileNotFoundException) {
 			//if we have a file not found exception, instruct user to pick another file.
 			System.err.println("The file was not found. Please run the program again and with another file.");
 		}
-		catch (IOException e) {
+		else {
 			//there's something wrong with the input or output file.
 			System.err.println("There was an error with the file.");
 			// print out the stacktrace of the error.
@@ -298,11 +836,42 @@ public class HuffmanEncoding{
 	
 	/**
 	 * main method that asks the user to pick a file, and runs huffman encoding on that file.
-	 * @param args
+	 * @param args optionally "compress" (the default), "decompress" or "verify", optionally "-pipelined" to
+	 * overlap reading, coding and writing on separate threads, optionally "-adaptive" to switch code tables
+	 * where the statistics of the file change, and optionally the path of the file. If no path is given the
+	 * user is asked to choose one.
 	 */
 	public static void main(String [] args){
-		//ask the user to choose a file and run huffman encoding on that file.
-		String inputPath = getFilePath();
-		runHuffmanEncoding(inputPath);
+		String command = "compress";
+		boolean pipelined = false;
+		boolean adaptive = false;
+		String inputPath = null;
+		for (String arg : args){
+			if (arg.equals("-pipelined")){
+				pipelined = true;
+			}
+			else if (arg.equals("-adaptive")){
+				adaptive = true;
+			}
+			else if (arg.equals("compress") || arg.equals("decompress") || arg.equals("verify")){
+				command = arg;
+			}
+			else{
+				inputPath = arg;
+			}
+		}
+		//ask the user to choose a file if none was given.
+		if (inputPath == null){
+			inputPath = getFilePath();
+		}
+		if (command.equals("decompress")){
+			runHuffmanDecoding(inputPath, pipelined);
+		}
+		else if (command.equals("verify")){
+			System.out.println(verifyHuffmanEncoding(inputPath, pipelined) ? "OK" : "FAILED");
+		}
+		else{
+			runHuffmanEncoding(inputPath, pipelined, adaptive);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+import java.util.concurrent.*;
+
+/**
+ * Class PipelineStage.java
+ * A stage of a pipelined ChannelReader or ChannelWriter, run on a thread borrowed from an executor
+ * instead of a thread of its own, so that pipelining a file does not create and destroy threads.
+ * By default stages share a bounded pool that is created the first time it is needed and whose
+ * idle threads are kept for reuse. When every thread of the pool is busy a stage is not started, and
+ * the reader or writer does its I/O on the caller's thread instead of waiting for a thread.
+ * @author nahokitade
+ *
+ */
+public class PipelineStage{
+	/** most threads the shared pool runs at once. */
+	public static final int MAX_SHARED_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+	/** how long an idle thread of the shared pool is kept before it is let go. */
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private static ExecutorService shared;  // made when first needed
+
+	private Thread runner;           // thread running the stage, null before it starts and after it ends
+	private boolean cancelled;       // whether the stage was cancelled, so it must not start any more
+	private CountDownLatch finished = new CountDownLatch(1);
+
+	/**
+	 * Returns the pool shared by every stage that is not given an executor of its own. It hands every stage
+	 * a thread straight away or refuses it, since a stage waiting in a queue could hold up its caller forever.
+	 * @return the shared pool
+	 */
+	public static synchronized ExecutorService shared(){
+		if (shared == null){
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(0, MAX_SHARED_THREADS, KEEP_ALIVE_SECONDS,
+					TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory(){
+				private int count;
+				public synchronized Thread newThread(Runnable task){
+					Thread thread = new Thread(task, "PipelineStage " + (++count));
+					// never keep the program alive just for idle stage threads.
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			shared = pool;
+		}
+		return shared;
+	}
+
+	/**
+	 * Starts a stage on an executor.
+	 * @param executor the executor to run the stage on. It must start the stage right away or refuse it
+	 * (like the shared pool), since the caller waits on the stage.
+	 * @param body what the stage does
+	 * @return the stage, or null if the executor refused it
+	 */
+	public static PipelineStage start(Executor executor, final Runnable body){
+		final PipelineStage stage = new PipelineStage();
+		try{
+			executor.execute(new Runnable(){
+				public void run(){
+					stage.run(body);
+				}
+			});
+		}
+		catch (RejectedExecutionException e){
+			return null;
+		}
+		return stage;
+	}
+
+	/**
+	 * Runs the body of the stage on the executor's thread, unless it was cancelled first.
+	 * @param body what the stage does
+	 */
+	private void run(Runnable body){
+		synchronized (this){
+			if (cancelled){
+				finished.countDown();
+				return;
+			}
+			runner = Thread.currentThread();
+		}
+		try{
+			body.run();
+		}
+		finally{
+			synchronized (this){
+				runner = null;
+				// do not hand the thread back to the pool with an interrupt meant for this stage.
+				Thread.interrupted();
+			}
+			finished.countDown();
+		}
+	}
+
+	/**
+	 * Interrupts the stage if it is running, and stops it from starting if it has not.
+	 */
+	public synchronized void cancel(){
+		cancelled = true;
+		if (runner != null){
+			runner.interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the stage has finished, or will never start because it was cancelled.
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException{
+		finished.await();
+	}
+
+	/**
+	 * @return whether the stage has finished, so that no thread can touch its buffers any more
+	 */
+	public boolean isFinished(){
+		return finished.getCount() == 0;
+	}
+}
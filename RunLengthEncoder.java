@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class RunLengthEncoder.java
+ * Writes content as runs: each run is the repeated byte followed by the length of the run in
+ * 7-bit groups, lowest group first, with the high bit of every group but the last set.
+ * Used instead of huffman codes for content made of long runs, such as a file holding a
+ * single repeated byte, which huffman codes cannot shrink below one bit per byte.
+ * @author nahokitade
+ *
+ */
+public class RunLengthEncoder{
+	private BufferedBitWriter bitOutput;  // writer of the runs
+	private int runCharacter = -1;        // byte value of the run in progress, -1 before the first byte
+	private long runLength;               // length of the run in progress
+
+	/**
+	 * Constructor
+	 * @param bitOutput the writer to write the runs to, at a byte boundary
+	 */
+	public RunLengthEncoder(BufferedBitWriter bitOutput){
+		this.bitOutput = bitOutput;
+	}
+
+	/**
+	 * Returns the number of bytes a run takes.
+	 * @param runLength the length of the run
+	 * @return the size of the run in bytes
+	 */
+	public static int runSize(long runLength){
+		int size = 2;  // the byte, and at least one group of the length
+		while ((runLength >>>= 7) != 0){
+			size ++;
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes every byte between the position and the limit of a buffer, moving its position to the
+	 * limit. Buffers passed to successive calls are treated as one piece of content.
+	 * @param chunk the bytes to encode
+	 * @throws IOException
+	 */
+	public void encode(ByteBuffer chunk) throws IOException{
+		while (chunk.hasRemaining()){
+			int character = chunk.get() & 0xFF;
+			// a different byte ends the run in progress.
+			if (character != runCharacter){
+				writeRun();
+				runCharacter = character;
+			}
+			runLength ++;
+		}
+	}
+
+	/**
+	 * Writes the run still in progress. Must be called after the last call to encode.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException{
+		writeRun();
+	}
+
+	/**
+	 * Writes the run in progress, if any.
+	 * @throws IOException
+	 */
+	private void writeRun() throws IOException{
+		if (runLength == 0){
+			return;
+		}
+		bitOutput.writeBits(runCharacter, 8);
+		long remaining = runLength;
+		while (remaining >= 0x80){
+			bitOutput.writeBits((int) (remaining & 0x7F) | 0x80, 8);
+			remaining >>>= 7;
+		}
+		bitOutput.writeBits((int) remaining, 8);
+		runLength = 0;
+	}
+}
@@ -0,0 +1,100 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Class TableCache.java
+ * Cache of CodeTables, so that a long-running process skips building the codes, code tree and decode table
+ * of a table it has seen before. Tables are looked up by their code lengths rather than their exact
+ * frequencies, so a file compressed and then decompressed, or files of the same kind whose frequencies
+ * differ only slightly, share one entry. The least recently used tables are dropped once the cache is full.
+ * Safe to share between threads.
+ * @author nahokitade
+ *
+ */
+public class TableCache{
+	/** number of code tables kept by the shared cache. */
+	public static final int SHARED_CAPACITY = 16;
+
+	private static TableCache shared;  // made when first needed
+
+	private int capacity;
+	// code tables by their code lengths, wrapped so that equals and hashCode go by the lengths' content.
+	private LinkedHashMap<ByteBuffer, CodeTable> entries;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor of TableCache object.
+	 * @param capacity number of code tables to keep
+	 */
+	public TableCache(int capacity){
+		if (capacity <= 0){
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		// access order, so that the eldest entry is the least recently used one.
+		entries = new LinkedHashMap<ByteBuffer, CodeTable>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CodeTable> eldest){
+				return size() > TableCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cache used by every compression and decompression that is not given a cache of its own, so
+	 * that calling them again and again on similar content does not rebuild the same codes and decode tables.
+	 * @return the shared cache
+	 */
+	public static synchronized TableCache shared(){
+		if (shared == null){
+			shared = new TableCache(SHARED_CAPACITY);
+		}
+		return shared;
+	}
+
+	/**
+	 * Returns the code table for a frequency table, from the cache if a table with the same code lengths is
+	 * in it, or else a new one, which is added to the cache.
+	 * @param freqTable a frequency table, indexed by byte value
+	 * @return the code table
+	 */
+	public CodeTable codeTable(int[] freqTable){
+		byte[] lengths = CodeTable.lengthsFor(freqTable);
+		ByteBuffer key = ByteBuffer.wrap(lengths);
+		synchronized (this){
+			CodeTable table = entries.get(key);
+			if (table != null){
+				hits ++;
+				return table;
+			}
+			misses ++;
+		}
+		// build the codes outside the lock, so other threads are not held up. Two threads missing the same
+		// table at once both build it, and the later one replaces the earlier one.
+		CodeTable table = new CodeTable(lengths);
+		synchronized (this){
+			entries.put(key, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the code table for a frequency table, from a cache if there is one.
+	 * @param freqTable a frequency table, indexed by byte value
+	 * @param cache the cache to look in, or null to build a new code table
+	 * @return the code table
+	 */
+	public static CodeTable codeTable(int[] freqTable, TableCache cache){
+		if (cache != null){
+			return cache.codeTable(freqTable);
+		}
+		return new CodeTable(CodeTable.lengthsFor(freqTable));
+	}
+
+	/**
+	 * simple to string method.
+	 */
+	public synchronized String toString(){
+		return entries.size() + "/" + capacity + " tables, " + hits + " hits, " + misses + " misses";
+	}
+}